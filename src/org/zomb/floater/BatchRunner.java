@@ -0,0 +1,126 @@
+/*
+ * This file is part of Floater.
+ *
+ * Floater is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Floater is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Floater.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.zomb.floater;
+
+import javax.imageio.ImageIO;
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Runs every program in a directory in one JVM, on all cores. Every program gets its own interpreter and empty input.
+ * The output, the changed image and the time it took are written to a results directory.
+ *
+ * @author Zom-B
+ * @version 1.2
+ * @since 1.2
+ */
+// Created 2026-10-18
+final class BatchRunner implements Runnable {
+	private final File inFile;
+	private final File resultsDir;
+	private final Long seed;
+	private final long maxSteps;
+
+	private String name;
+	private String result;
+	private long steps;
+	private long nanos;
+
+	private BatchRunner(File inFile, File resultsDir, Long seed, long maxSteps) {
+		this.inFile = inFile;
+		this.resultsDir = resultsDir;
+		this.seed = seed;
+		this.maxSteps = maxSteps;
+
+		name = inFile.getName();
+		name = name.substring(0, name.length() - 4);
+	}
+
+	/**
+	 * Runs all .png files in the directory, and writes {@code <name>.txt}, {@code <name>.png} and {@code summary.txt} to
+	 * the results directory. Programs that don't halt are stopped after {@code maxSteps} instructions.
+	 */
+	static void runAll(File dir, File resultsDir, Long seed, long maxSteps) throws IOException {
+		File[] files = dir.listFiles((parent, fileName) -> fileName.toLowerCase().endsWith(".png"));
+		if (files == null)
+			throw new FileNotFoundException(dir.getPath());
+		Arrays.sort(files);
+
+		if (!resultsDir.isDirectory() && !resultsDir.mkdirs())
+			throw new IOException("Cannot create " + resultsDir);
+
+		List<BatchRunner> tasks = new ArrayList<>(files.length);
+		for (File file : files)
+			tasks.add(new BatchRunner(file, resultsDir, seed, maxSteps));
+
+		// Programs take very different times, so idle threads steal the remaining ones.
+		ForkJoinPool pool = new ForkJoinPool();
+		try {
+			List<ForkJoinTask<?>> running = new ArrayList<>(tasks.size());
+			for (BatchRunner task : tasks)
+				running.add(pool.submit(task));
+			for (ForkJoinTask<?> task : running)
+				task.join();
+		} finally {
+			pool.shutdown();
+		}
+
+		try (PrintStream summary = new PrintStream(new FileOutputStream(new File(resultsDir, "summary.txt")),
+		                                           false, "UTF-8")) {
+			summary.println("program\tresult\tsteps\tms");
+			for (BatchRunner task : tasks)
+				summary.println(task.name + '\t' + task.result + '\t' + task.steps + '\t' + task.nanos / 1000000);
+		}
+	}
+
+	@Override
+	public void run() {
+		long start = System.nanoTime();
+
+		FloaterInterpreter vm = new FloaterInterpreter();
+		try (FileChannel out = FileChannel.open(new File(resultsDir, name + ".txt").toPath(), StandardOpenOption.WRITE,
+		                                        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			vm.setCompiled(true);
+			if (seed != null)
+				vm.setSeed(seed);
+			vm.setIO(FloaterIO.of(null, out));
+			vm.setFlushPolicy(FlushPolicy.HALT);
+			vm.setFlushInterval(0);
+			vm.setImage(ImageIO.read(inFile));
+
+			result = FloaterMain.simulate(vm, maxSteps) ? "halted" : "step limit";
+			nanos = System.nanoTime() - start;
+
+			try (OutputStream imgOut = new BufferedOutputStream(
+					new FileOutputStream(new File(resultsDir, name + ".png")))) {
+				ImageIO.write(vm.getImage(), "png", imgOut);
+			}
+		} catch (IOException | RuntimeException ex) {
+			result = "error: " + ex;
+			nanos = System.nanoTime() - start;
+		}
+
+		steps = vm.getSteps();
+	}
+}
@@ -0,0 +1,347 @@
+/*
+ * This file is part of Floater.
+ *
+ * Floater is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Floater is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Floater.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.zomb.floater;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.zip.CRC32;
+
+/**
+ * The pixels an interpreter runs on. Either writes straight into an array of its own, or reads from the shared array of
+ * a {@link FloaterProgram} and copies a tile of it the first time a pixel in it is written. Either way, it remembers which
+ * tiles were written to.
+ * <p>
+ * When SET PIXEL writes outside the canvas, it {@link #grow}s by adding tiles. The pixels outside the array it started
+ * from are black, and aren't stored until they are written to.
+ *
+ * @author Zom-B
+ * @version 1.2
+ * @since 1.2
+ */
+// Created 2026-10-18
+final class Canvas {
+	// Tiles are 64x64 pixels.
+	static final int TILE_BITS = 6;
+	static final int TILE_SIZE = 1 << TILE_BITS;
+	private static final int TILE_MASK = TILE_SIZE - 1;
+
+	final int width;
+	final int height;
+
+	// Pixel indices (see index()) have room for 1 << rowBits tiles in a row.
+	final int rowBits;
+
+	// RGB values, indexed by y * baseWidth + x. Only written to when there are no tiles. Pixels outside it are black.
+	private final int[] base;
+	private final int baseWidth;
+	private final int baseHeight;
+
+	// Whether the base is the unchanged pixels of a shared program.
+	private final boolean shared;
+
+	// Copies of the written tiles, or null when the canvas writes straight into the base.
+	private final int[][] tiles;
+	final int tilesX;
+
+	// Tiles that were written to since the clients last cleared it, indexed by tileY * tilesX + tileX. All tiles of a new
+	// canvas are dirty, as nobody has seen them yet.
+	final BitSet dirty = new BitSet();
+
+	// Checksum of a shared base, or 0 when not known yet.
+	private long checksum;
+
+	Canvas(int[] base, int width, int height, boolean shared) {
+		this.width = width;
+		this.height = height;
+		this.base = base;
+		baseWidth = width;
+		baseHeight = height;
+		this.shared = shared;
+		rowBits = rowBits(width);
+
+		tilesX = width + TILE_MASK >> TILE_BITS;
+		int tileCount = tilesX * (height + TILE_MASK >> TILE_BITS);
+		tiles = shared ? new int[tileCount][] : null;
+		dirty.set(0, tileCount);
+	}
+
+	private Canvas(Canvas canvas, int width, int height) {
+		this.width = width;
+		this.height = height;
+		base = canvas.base;
+		baseWidth = canvas.baseWidth;
+		baseHeight = canvas.baseHeight;
+		shared = canvas.shared;
+		checksum = canvas.checksum;
+		rowBits = Math.max(canvas.rowBits, rowBits(width));
+
+		tilesX = width + TILE_MASK >> TILE_BITS;
+		int tileCount = tilesX * (height + TILE_MASK >> TILE_BITS);
+		tiles = new int[tileCount][];
+		dirty.set(0, tileCount);
+
+		// The pixels of the tiles at the edge that were outside the canvas are still black.
+		if (canvas.tiles != null) {
+			for (int index = 0; index < canvas.tiles.length; index++)
+				tiles[index / canvas.tilesX * tilesX + index % canvas.tilesX] = canvas.tiles[index];
+		}
+	}
+
+	/**
+	 * Returns a bigger canvas with the same pixels, and black pixels in the new part. Only the tiles are moved, so it
+	 * doesn't matter how big it is. This canvas must not be used anymore.
+	 */
+	Canvas grow(int width, int height) {
+		return new Canvas(this, width, height);
+	}
+
+	/**
+	 * Index of pixel (x, y) in the arrays that are indexed by pixel, like the component labels and the program graph.
+	 * The pixels of a tile are stored together, so a page of {@link PagedInts} is a tile. The index stays the same when
+	 * the canvas grows, as long as rowBits does, so those arrays only have to add pages then.
+	 */
+	static int index(int x, int y, int rowBits) {
+		return ((y >> TILE_BITS << rowBits | x >> TILE_BITS) << TILE_BITS | y & TILE_MASK) << TILE_BITS | x & TILE_MASK;
+	}
+
+	static int indexX(int index, int rowBits) {
+		return (index >> 2 * TILE_BITS & (1 << rowBits) - 1) << TILE_BITS | index & TILE_MASK;
+	}
+
+	static int indexY(int index, int rowBits) {
+		return index >> 2 * TILE_BITS + rowBits << TILE_BITS | index >> TILE_BITS & TILE_MASK;
+	}
+
+	// The number of indices of a canvas of this height.
+	static int indexLength(int height, int rowBits) {
+		return (height + TILE_MASK >> TILE_BITS << rowBits) << 2 * TILE_BITS;
+	}
+
+	// The least rowBits for a canvas of this width.
+	static int rowBits(int width) {
+		return 32 - Integer.numberOfLeadingZeros((width + TILE_MASK >> TILE_BITS) - 1);
+	}
+
+	// Whether the canvas is bigger than the array it started from.
+	boolean grown() {
+		return width != baseWidth || height != baseHeight;
+	}
+
+	// The coordinates must be inside the canvas.
+	int get(int x, int y) {
+		if (tiles != null) {
+			int[] tile = tiles[(y >> TILE_BITS) * tilesX + (x >> TILE_BITS)];
+			if (tile != null)
+				return tile[(y & TILE_MASK) << TILE_BITS | x & TILE_MASK];
+			if (x >= baseWidth || y >= baseHeight)
+				return 0;
+		}
+
+		return base[y * baseWidth + x];
+	}
+
+	// The coordinates must be inside the canvas.
+	void set(int x, int y, int rgb) {
+		int index = (y >> TILE_BITS) * tilesX + (x >> TILE_BITS);
+		dirty.set(index);
+
+		if (tiles == null) {
+			base[y * baseWidth + x] = rgb;
+			return;
+		}
+
+		int[] tile = tiles[index];
+		if (tile == null)
+			tile = tiles[index] = copyTile(x & ~TILE_MASK, y & ~TILE_MASK);
+
+		tile[(y & TILE_MASK) << TILE_BITS | x & TILE_MASK] = rgb;
+	}
+
+	private int[] copyTile(int x0, int y0) {
+		int[] tile = new int[TILE_SIZE * TILE_SIZE];
+		copyFromBase(x0, y0, tile);
+		return tile;
+	}
+
+	// Copies the part of a tile that lies inside the base, in rows of TILE_SIZE.
+	private void copyFromBase(int x0, int y0, int[] tile) {
+		int w = Math.min(TILE_SIZE, baseWidth - x0);
+		int h = Math.min(TILE_SIZE, baseHeight - y0);
+		if (w <= 0)
+			return;
+
+		for (int y = 0; y < h; y++)
+			System.arraycopy(base, (y0 + y) * baseWidth + x0, tile, y << TILE_BITS, w);
+	}
+
+	/**
+	 * Copies the pixels of a tile into an array of TILE_SIZE * TILE_SIZE, in rows of TILE_SIZE. The part of a tile at the
+	 * edge that lies outside the canvas may hold anything.
+	 */
+	void readTile(int index, int[] dest) {
+		int x0 = index % tilesX << TILE_BITS;
+		int y0 = index / tilesX << TILE_BITS;
+		int w = Math.min(TILE_SIZE, width - x0);
+		int h = Math.min(TILE_SIZE, height - y0);
+
+		int[] tile = tiles != null ? tiles[index] : null;
+		if (tile != null) {
+			for (int y = 0; y < h; y++)
+				System.arraycopy(tile, y << TILE_BITS, dest, y << TILE_BITS, w);
+		} else {
+			if (x0 + w > baseWidth || y0 + h > baseHeight)
+				Arrays.fill(dest, 0);
+			copyFromBase(x0, y0, dest);
+		}
+	}
+
+	/**
+	 * Returns all pixels, indexed by y * width + x. The array may be the canvas itself, so it must not be modified.
+	 */
+	int[] pixels() {
+		if (tiles == null)
+			return base;
+
+		int[] pixels;
+		if (grown()) {
+			pixels = new int[width * height];
+			for (int y = 0; y < baseHeight; y++)
+				System.arraycopy(base, y * baseWidth, pixels, y * width, baseWidth);
+		} else {
+			pixels = base.clone();
+		}
+
+		for (int index = 0; index < tiles.length; index++) {
+			int[] tile = tiles[index];
+			if (tile == null)
+				continue;
+
+			int x0 = index % tilesX << TILE_BITS;
+			int y0 = index / tilesX << TILE_BITS;
+			int w = Math.min(TILE_SIZE, width - x0);
+			int h = Math.min(TILE_SIZE, height - y0);
+			for (int y = 0; y < h; y++)
+				System.arraycopy(tile, y << TILE_BITS, pixels, (y0 + y) * width + x0, w);
+		}
+		return pixels;
+	}
+
+	/**
+	 * Writes the pixels, as the difference with the shared base, for the tiles that were written to. The base itself is
+	 * only identified by a checksum. A canvas that is not shared writes all pixels.
+	 */
+	void writeDelta(DataOutputStream out) throws IOException {
+		out.writeBoolean(shared);
+		if (!shared) {
+			for (int y = 0; y < height; y++)
+				for (int x = 0; x < width; x++)
+					out.writeInt(get(x, y));
+			return;
+		}
+
+		out.writeLong(baseChecksum());
+
+		int count = 0;
+		for (int[] tile : tiles)
+			if (tile != null)
+				count++;
+		out.writeInt(count);
+
+		for (int index = 0; index < tiles.length; index++) {
+			int[] tile = tiles[index];
+			if (tile == null)
+				continue;
+
+			out.writeInt(index);
+			int x0 = index % tilesX << TILE_BITS;
+			int y0 = index / tilesX << TILE_BITS;
+			int w = Math.min(TILE_SIZE, width - x0);
+			int h = Math.min(TILE_SIZE, height - y0);
+			for (int y = y0; y < y0 + h; y++) {
+				for (int x = x0; x < x0 + w; x++) {
+					int rgb = x < baseWidth && y < baseHeight ? base[y * baseWidth + x] : 0;
+					out.writeInt(tile[(y & TILE_MASK) << TILE_BITS | x & TILE_MASK] ^ rgb);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads what {@link #writeDelta} wrote. The canvas must still hold the same pixels the written one started with.
+	 */
+	void readDelta(DataInputStream in) throws IOException {
+		if (!in.readBoolean()) {
+			for (int y = 0; y < height; y++)
+				for (int x = 0; x < width; x++)
+					set(x, y, in.readInt());
+			return;
+		}
+
+		if (in.readLong() != baseChecksum())
+			throw new IOException("The snapshot is of a different program");
+
+		int count = in.readInt();
+		int tileCount = tilesX * (height + TILE_MASK >> TILE_BITS);
+		if (count < 0 || count > tileCount)
+			throw new IOException("Corrupt snapshot");
+
+		for (int i = 0; i < count; i++) {
+			int index = in.readInt();
+			if (index < 0 || index >= tileCount)
+				throw new IOException("Corrupt snapshot");
+
+			int x0 = index % tilesX << TILE_BITS;
+			int y0 = index / tilesX << TILE_BITS;
+			int w = Math.min(TILE_SIZE, width - x0);
+			int h = Math.min(TILE_SIZE, height - y0);
+			for (int y = 0; y < h; y++) {
+				for (int x = 0; x < w; x++) {
+					int delta = in.readInt();
+					if (delta != 0)
+						set(x0 + x, y0 + y, get(x0 + x, y0 + y) ^ delta);
+				}
+			}
+		}
+	}
+
+	// Identifies the base. Only remembered when it is shared, as it never changes then.
+	private long baseChecksum() {
+		if (checksum == 0 || !shared) {
+			ByteBuffer bytes = ByteBuffer.allocate(base.length * Integer.BYTES);
+			bytes.asIntBuffer().put(base);
+			CRC32 crc = new CRC32();
+			crc.update(bytes);
+			checksum = crc.getValue() | 1L << 32;
+		}
+
+		return checksum;
+	}
+
+	BufferedImage toImage() {
+		BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		int[] data = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+		System.arraycopy(pixels(), 0, data, 0, data.length);
+		return img;
+	}
+}
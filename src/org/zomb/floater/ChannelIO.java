@@ -0,0 +1,132 @@
+/*
+ * This file is part of Floater.
+ *
+ * Floater is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Floater is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Floater.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.zomb.floater;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.IllegalBlockingModeException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * {@link FloaterIO} over blocking NIO channels.
+ *
+ * @author Zom-B
+ * @version 1.2
+ * @since 1.2
+ */
+// Created 2026-10-18
+final class ChannelIO implements FloaterIO {
+	// Either may be null.
+	private final ReadableByteChannel input;
+	private final WritableByteChannel output;
+
+	// Read ahead by available(), in read mode, or null.
+	private ByteBuffer ahead;
+	private boolean ended;
+
+	ChannelIO(ReadableByteChannel input, WritableByteChannel output) {
+		this.input = input;
+		this.output = output;
+	}
+
+	@Override
+	public int read(ByteBuffer buffer) throws IOException {
+		if (ahead != null && ahead.hasRemaining()) {
+			int n = Math.min(buffer.remaining(), ahead.remaining());
+			int limit = ahead.limit();
+			ahead.limit(ahead.position() + n);
+			buffer.put(ahead);
+			ahead.limit(limit);
+			return n;
+		}
+
+		if (input == null || ended)
+			return -1;
+
+		return input.read(buffer);
+	}
+
+	@Override
+	public int available() throws IOException {
+		if (input == null || ended)
+			return -1;
+		if (ahead != null && ahead.hasRemaining())
+			return ahead.remaining();
+
+		// Files know how much is left.
+		if (input instanceof SeekableByteChannel) {
+			SeekableByteChannel file = (SeekableByteChannel) input;
+			long left = file.size() - file.position();
+			return left > 0 ? (int) Math.min(Integer.MAX_VALUE, left) : -1;
+		}
+
+		// Pipes and sockets can be read without waiting for a moment.
+		if (input instanceof SelectableChannel)
+			return readAhead((SelectableChannel) input);
+
+		return 0;
+	}
+
+	private int readAhead(SelectableChannel channel) throws IOException {
+		if (ahead == null)
+			ahead = ByteBuffer.allocate(8192);
+		ahead.clear();
+
+		int n;
+		synchronized (channel.blockingLock()) {
+			boolean blocking = channel.isBlocking();
+			try {
+				channel.configureBlocking(false);
+			} catch (IllegalBlockingModeException ignored) {
+				// Registered with a selector.
+				ahead.flip();
+				return 0;
+			}
+			try {
+				n = input.read(ahead);
+			} finally {
+				channel.configureBlocking(blocking);
+			}
+		}
+		ahead.flip();
+
+		if (n < 0) {
+			ended = true;
+			return -1;
+		}
+		return n;
+	}
+
+	@Override
+	public void write(ByteBuffer buffer) throws IOException {
+		if (output == null) {
+			buffer.position(buffer.limit());
+			return;
+		}
+
+		while (buffer.hasRemaining())
+			output.write(buffer);
+	}
+
+	@Override
+	public void flush() {
+	}
+}
@@ -0,0 +1,228 @@
+/*
+ * This file is part of Floater.
+ *
+ * Floater is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Floater is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Floater.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.zomb.floater;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal writer for Java class files. Only knows the constant pool entries and attributes needed by
+ * {@link TraceCompiler} and {@link FloaterCompilerMain}.
+ * <p>
+ * The class files have version 49 (Java 5), which the JVM verifies by type inference, so no stack map frames have to be
+ * calculated.
+ *
+ * @author Zom-B
+ * @version 1.2
+ * @since 1.2
+ */
+// Created 2026-10-18
+final class ClassFileWriter {
+	private static final int VERSION = 49;
+
+	// Access flags.
+	static final int ACC_PUBLIC = 0x0001;
+	static final int ACC_STATIC = 0x0008;
+	static final int ACC_FINAL = 0x0010;
+	static final int ACC_SUPER = 0x0020;
+
+	// Constant pool tags.
+	private static final int CONSTANT_UTF8 = 1;
+	private static final int CONSTANT_INTEGER = 3;
+	private static final int CONSTANT_DOUBLE = 6;
+	private static final int CONSTANT_CLASS = 7;
+	private static final int CONSTANT_STRING = 8;
+	private static final int CONSTANT_FIELDREF = 9;
+	private static final int CONSTANT_METHODREF = 10;
+	private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+	// Constant pool, without the unused entry 0.
+	private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+	private final Map<String, Integer> poolIndices = new HashMap<>();
+	private int poolSize = 1;
+
+	private final int thisClass;
+	private final int superClass;
+	private final int[] interfaces;
+
+	private final List<byte[]> methods = new ArrayList<>();
+
+	ClassFileWriter(String name, String superName, String... interfaceNames) {
+		thisClass = classRef(name);
+		superClass = classRef(superName);
+
+		interfaces = new int[interfaceNames.length];
+		for (int i = 0; i < interfaceNames.length; i++)
+			interfaces[i] = classRef(interfaceNames[i]);
+	}
+
+	int utf8(String value) {
+		Integer index = poolIndices.get("U" + value);
+		if (index != null)
+			return index;
+
+		DataOutputStream out = new DataOutputStream(pool);
+		try {
+			out.writeByte(CONSTANT_UTF8);
+			out.writeUTF(value);
+		} catch (IOException ex) {
+			throw new AssertionError(ex);
+		}
+		return addEntry("U" + value, 1);
+	}
+
+	int classRef(String name) {
+		return entry("C" + name, CONSTANT_CLASS, utf8(name));
+	}
+
+	int fieldRef(String owner, String name, String descriptor) {
+		return entry("F" + owner + '.' + name + descriptor, CONSTANT_FIELDREF,
+		             classRef(owner), nameAndType(name, descriptor));
+	}
+
+	int methodRef(String owner, String name, String descriptor) {
+		return entry("M" + owner + '.' + name + descriptor, CONSTANT_METHODREF,
+		             classRef(owner), nameAndType(name, descriptor));
+	}
+
+	int intConstant(int value) {
+		Integer index = poolIndices.get("I" + value);
+		if (index != null)
+			return index;
+
+		pool.write(CONSTANT_INTEGER);
+		writeShort(pool, value >> 16);
+		writeShort(pool, value);
+		return addEntry("I" + value, 1);
+	}
+
+	int stringConstant(String value) {
+		return entry("S" + value, CONSTANT_STRING, utf8(value));
+	}
+
+	int doubleConstant(double value) {
+		long bits = Double.doubleToRawLongBits(value);
+		Integer index = poolIndices.get("D" + bits);
+		if (index != null)
+			return index;
+
+		pool.write(CONSTANT_DOUBLE);
+		for (int shift = 56; shift >= 0; shift -= 8)
+			pool.write((int) (bits >> shift));
+
+		// Doubles take two entries.
+		return addEntry("D" + bits, 2);
+	}
+
+	private int nameAndType(String name, String descriptor) {
+		return entry("N" + name + ' ' + descriptor, CONSTANT_NAME_AND_TYPE, utf8(name), utf8(descriptor));
+	}
+
+	private int entry(String key, int tag, int first, int second) {
+		Integer index = poolIndices.get(key);
+		if (index != null)
+			return index;
+
+		pool.write(tag);
+		writeShort(pool, first);
+		writeShort(pool, second);
+		return addEntry(key, 1);
+	}
+
+	private int entry(String key, int tag, int value) {
+		Integer index = poolIndices.get(key);
+		if (index != null)
+			return index;
+
+		pool.write(tag);
+		writeShort(pool, value);
+		return addEntry(key, 1);
+	}
+
+	private int addEntry(String key, int size) {
+		int index = poolSize;
+		poolIndices.put(key, index);
+		poolSize += size;
+		return index;
+	}
+
+	/**
+	 * Adds a method with the given bytecode. The code may not contain exception handlers.
+	 */
+	void addMethod(int access, String name, String descriptor, int maxStack, int maxLocals, byte[] code, int length) {
+		ByteArrayOutputStream method = new ByteArrayOutputStream(length + 32);
+		writeShort(method, access);
+		writeShort(method, utf8(name));
+		writeShort(method, utf8(descriptor));
+		writeShort(method, 1); // attributes_count
+
+		writeShort(method, utf8("Code"));
+		writeInt(method, length + 12);
+		writeShort(method, maxStack);
+		writeShort(method, maxLocals);
+		writeInt(method, length);
+		method.write(code, 0, length);
+		writeShort(method, 0); // exception_table_length
+		writeShort(method, 0); // attributes_count
+
+		methods.add(method.toByteArray());
+	}
+
+	byte[] toByteArray() {
+		if (poolSize > 0xFFFF)
+			throw new IllegalStateException("Constant pool too big: " + poolSize);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream(pool.size() + 256);
+		writeInt(out, 0xCAFEBABE);
+		writeShort(out, 0);
+		writeShort(out, VERSION);
+
+		writeShort(out, poolSize);
+		out.write(pool.toByteArray(), 0, pool.size());
+
+		writeShort(out, ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+		writeShort(out, thisClass);
+		writeShort(out, superClass);
+		writeShort(out, interfaces.length);
+		for (int index : interfaces)
+			writeShort(out, index);
+
+		writeShort(out, 0); // fields_count
+		writeShort(out, methods.size());
+		for (byte[] method : methods)
+			out.write(method, 0, method.length);
+		writeShort(out, 0); // attributes_count
+
+		return out.toByteArray();
+	}
+
+	private static void writeShort(ByteArrayOutputStream out, int value) {
+		out.write(value >> 8);
+		out.write(value);
+	}
+
+	private static void writeInt(ByteArrayOutputStream out, int value) {
+		writeShort(out, value >> 16);
+		writeShort(out, value);
+	}
+}
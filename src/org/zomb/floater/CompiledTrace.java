@@ -0,0 +1,37 @@
+/*
+ * This file is part of Floater.
+ *
+ * Floater is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Floater is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Floater.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.zomb.floater;
+
+/**
+ * A trace compiled to JVM bytecode by {@link TraceCompiler}.
+ *
+ * @author Zom-B
+ * @version 1.2
+ * @since 1.2
+ */
+// Created 2026-10-18
+interface CompiledTrace {
+	/**
+	 * Runs the trace on the stack and image of the interpreter. A trace that loops back to its start is repeated at most
+	 * {@code loops} times, and the loops that are left are stored in {@link Trace#loopsLeft}. Traces of the same shape
+	 * share their code, so the trace itself is needed for its guards.
+	 *
+	 * @return the exit of the trace that was taken (see {@link Trace#exitX})
+	 */
+	int run(FloaterInterpreter vm, Trace trace, int loops);
+}
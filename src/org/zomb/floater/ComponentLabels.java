@@ -0,0 +1,624 @@
+/*
+ * This file is part of Floater.
+ *
+ * Floater is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Floater is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Floater.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.zomb.floater;
+
+import java.util.Arrays;
+
+/**
+ * Labels the 4-connected areas of equal color in an image, and counts the area of each.
+ * <p>
+ * Uses the classic two-pass algorithm: the first pass hands out provisional labels and records which of them touch in
+ * a union-find forest, the second pass replaces every provisional label with a compact component id.
+ * <p>
+ * Every component also has a generation, which changes whenever the component changes shape. Anything derived from a
+ * component stays valid for as long as the generation of the component is the same. Components can also be marked as
+ * code, to find out whether a change affected any decoded instruction.
+ *
+ * @author Zom-B
+ * @version 1.2
+ * @since 1.2
+ */
+// Created 2026-10-18
+final class ComponentLabels {
+	final int width;
+	final int height;
+	final int rowBits;
+
+	// Component id of every pixel, indexed by Canvas.index().
+	private final PagedInts label;
+	// Pixels.
+	private final int length;
+
+	// Area, generation and code mark (1 or 0) of every component, indexed by component id.
+	private PagedInts area;
+	private PagedInts generation;
+	private PagedInts code;
+	private int capacity;
+	private int components;
+	private int nextGeneration = 1;
+
+	// Whether the last recolor changed a component that is marked as code.
+	private boolean touchedCode;
+
+	// The eight pixels around a pixel, clockwise from the top-left. Odd ones are the four neighbours.
+	private static final int[] RING_X = {-1, 0, 1, 1, 1, 0, -1, -1};
+	private static final int[] RING_Y = {-1, -1, -1, 0, 1, 1, 1, 0};
+
+	// Relabeling helpers.
+	private int[] stack = new int[64];
+	private final Search[] search = {new Search(), new Search(), new Search(), new Search()};
+	private PagedInts visited;
+	private int visitEpoch;
+
+	/**
+	 * Labels the pixels, indexed by y * width + x, for a canvas with the given rowBits.
+	 */
+	ComponentLabels(int[] rgb, int width, int height, int rowBits) {
+		this.width = width;
+		this.height = height;
+		this.rowBits = rowBits;
+		length = width * height;
+		int[] label = new int[length];
+
+		// First pass: provisional labels.
+		int[] parent = new int[64];
+		int labels = 0;
+		for (int y = 0, p = 0; y < height; y++) {
+			for (int x = 0; x < width; x++, p++) {
+				int color = rgb[p];
+				boolean left = x > 0 && rgb[p - 1] == color;
+				boolean up = y > 0 && rgb[p - width] == color;
+
+				if (left) {
+					label[p] = label[p - 1];
+					if (up)
+						union(parent, label[p], label[p - width]);
+				} else if (up) {
+					label[p] = label[p - width];
+				} else {
+					if (labels == parent.length)
+						parent = Arrays.copyOf(parent, labels * 2);
+
+					parent[labels] = labels;
+					label[p] = labels++;
+				}
+			}
+		}
+
+		// Roots always have the lowest index in their tree, so they are compacted before their children.
+		int[] compact = new int[labels];
+		for (int i = 0; i < labels; i++) {
+			int root = find(parent, i);
+			compact[i] = root == i ? components++ : compact[root];
+		}
+
+		// Second pass: final labels.
+		capacity = Math.max(components, 16);
+		int[] area = new int[capacity];
+		for (int p = 0; p < length; p++) {
+			int id = compact[label[p]];
+			label[p] = id;
+			area[id]++;
+		}
+
+		int[] generation = new int[capacity];
+		for (int id = 0; id < components; id++)
+			generation[id] = nextGeneration++;
+
+		// Component 0 doesn't need any pages.
+		this.label = new PagedInts(Canvas.indexLength(height, rowBits));
+		for (int y = 0, p = 0; y < height; y++)
+			for (int x = 0; x < width; x++, p++)
+				if (label[p] != 0)
+					this.label.set(Canvas.index(x, y, rowBits), label[p]);
+
+		this.area = new PagedInts(area);
+		this.generation = new PagedInts(generation);
+		code = new PagedInts(capacity);
+	}
+
+	// Shares the pages of the labeling until they are changed.
+	private ComponentLabels(ComponentLabels labels) {
+		width = labels.width;
+		height = labels.height;
+		rowBits = labels.rowBits;
+		length = labels.length;
+		label = labels.label.copy();
+		area = labels.area.copy();
+		generation = labels.generation.copy();
+		code = labels.code.copy();
+		capacity = labels.capacity;
+		components = labels.components;
+		nextGeneration = labels.nextGeneration;
+	}
+
+	// Takes over the labeling, which must not be used anymore. The pixels outside it are not labeled yet.
+	private ComponentLabels(ComponentLabels labels, Canvas canvas) {
+		width = canvas.width;
+		height = canvas.height;
+		rowBits = canvas.rowBits;
+		length = width * height;
+
+		if (rowBits == labels.rowBits) {
+			label = labels.label;
+			label.ensureLength(Canvas.indexLength(height, rowBits));
+		} else {
+			// The tiles moved, which happens less and less often as the canvas grows wider.
+			label = new PagedInts(Canvas.indexLength(height, rowBits));
+			for (int y = 0; y < labels.height; y++) {
+				for (int x = 0; x < labels.width; x++) {
+					int id = labels.label.get(Canvas.index(x, y, labels.rowBits));
+					if (id != 0)
+						label.set(Canvas.index(x, y, rowBits), id);
+				}
+			}
+		}
+
+		area = labels.area;
+		generation = labels.generation;
+		code = labels.code;
+		capacity = labels.capacity;
+		components = labels.components;
+		nextGeneration = labels.nextGeneration;
+	}
+
+	/**
+	 * Returns the labeling of the canvas, which is a bigger version of the image of this labeling with black pixels
+	 * added to the right and bottom. The added pixels join the black components along the old edges, and take the id
+	 * of the biggest one, so that only the others are relabeled. All other components keep their id and generation. This
+	 * labeling must not be used anymore.
+	 * <p>
+	 * The tiles that are completely new share one page, so only the pixels of the tiles along the old edges are
+	 * written.
+	 */
+	ComponentLabels grow(Canvas canvas) {
+		ComponentLabels labels = new ComponentLabels(this, canvas);
+
+		int added = -1;
+		for (int y = 0; y < height && labels.width > width; y++)
+			added = biggest(added, canvas, width - 1, y);
+		for (int x = 0; x < width && labels.height > height; x++)
+			added = biggest(added, canvas, x, height - 1);
+		if (added < 0)
+			added = labels.newComponent();
+
+		int[] page = new int[PagedInts.PAGE_SIZE];
+		Arrays.fill(page, added);
+		for (int y0 = 0; y0 < labels.height; y0 += Canvas.TILE_SIZE) {
+			for (int x0 = 0; x0 < labels.width; x0 += Canvas.TILE_SIZE) {
+				if (x0 >= width || y0 >= height) {
+					labels.label.share(Canvas.index(x0, y0, labels.rowBits), page);
+					continue;
+				}
+
+				// A tile with old pixels. The new pixels are right of them, and below them.
+				if (x0 + Canvas.TILE_SIZE <= width && y0 + Canvas.TILE_SIZE <= height)
+					continue;
+
+				int x1 = Math.min(x0 + Canvas.TILE_SIZE, labels.width);
+				int y1 = Math.min(y0 + Canvas.TILE_SIZE, labels.height);
+				for (int y = y0; y < y1; y++)
+					for (int x = y < height ? Math.max(x0, width) : x0; x < x1; x++)
+						labels.label.set(Canvas.index(x, y, labels.rowBits), added);
+			}
+		}
+		labels.area.set(added, labels.area.get(added) + labels.length - length);
+		labels.generation.set(added, labels.nextGeneration++);
+
+		// Only the pixels along the old edges can touch the added pixels.
+		for (int y = 0; y < height; y++) {
+			if (labels.width > width && canvas.get(width - 1, y) == 0)
+				added = labels.absorb(added, labels.index(width - 1, y), labels.index(width, y));
+		}
+		for (int x = 0; x < width; x++) {
+			if (labels.height > height && canvas.get(x, height - 1) == 0)
+				added = labels.absorb(added, labels.index(x, height - 1), labels.index(x, height));
+		}
+
+		return labels;
+	}
+
+	// The bigger of component id and the component of the pixel, if the pixel is black.
+	private int biggest(int id, Canvas canvas, int x, int y) {
+		if (canvas.get(x, y) != 0)
+			return id;
+
+		int other = label(x, y);
+		return id < 0 || area.get(other) > area.get(id) ? other : id;
+	}
+
+	// Merges the component of pixel p with component id, which its neighbour q is part of. Returns the merged id.
+	private int absorb(int id, int p, int q) {
+		int other = label.get(p);
+		if (other == id)
+			return id;
+
+		// The smaller one is relabeled.
+		int keep = area.get(other) > area.get(id) ? other : id;
+		int gone = keep == id ? other : id;
+		area.set(keep, area.get(keep) + relabel(keep == id ? p : q, gone, keep));
+		area.set(gone, 0);
+		code.set(keep, code.get(keep) | code.get(gone));
+		generation.set(keep, nextGeneration++);
+		return keep;
+	}
+
+	/**
+	 * Copies the labeling. The copy shares the labels with this one until either changes them, so this one must not be
+	 * changed anymore. Only reads this one, so several threads can copy the same labeling at once.
+	 */
+	ComponentLabels copy() {
+		return new ComponentLabels(this);
+	}
+
+	private int index(int x, int y) {
+		return Canvas.index(x, y, rowBits);
+	}
+
+	int label(int x, int y) {
+		return label.get(index(x, y));
+	}
+
+	int area(int x, int y) {
+		return area.get(label.get(index(x, y)));
+	}
+
+	int generation(int x, int y) {
+		return generation(index(x, y));
+	}
+
+	// The generation of the component of the pixel with index p (see Canvas.index()).
+	int generation(int p) {
+		return generation.get(label.get(p));
+	}
+
+	void markCode(int x, int y) {
+		code.set(label.get(index(x, y)), 1);
+	}
+
+	boolean touchedCode() {
+		return touchedCode;
+	}
+
+	/**
+	 * Updates the labels after the color of one pixel changed. Only the smaller side of a split or merge is relabeled,
+	 * and most splits are ruled out by looking at the eight surrounding pixels alone.
+	 *
+	 * @param merge bit i is set when neighbour i (up, left, right, down) now has the same color as the pixel
+	 * @return false when the generations ran out, and everything derived from them should be discarded
+	 */
+	boolean recolor(int x, int y, int merge) {
+		int p = index(x, y);
+
+		touchedCode = false;
+		leave(p, x, y);
+		join(p, merge);
+
+		if (components > length + 64)
+			compact();
+
+		return nextGeneration < Integer.MAX_VALUE - 8;
+	}
+
+	// The pixel leaves its component, which might fall apart.
+	private void leave(int p, int x, int y) {
+		int id = label.get(p);
+		label.set(p, -1);
+		area.set(id, area.get(id) - 1);
+		generation.set(id, nextGeneration++);
+		touchedCode |= code.get(id) != 0;
+
+		// Look around the pixel.
+		int members = 0;
+		for (int i = 0; i < 8; i++)
+			if (labelAt(x + RING_X[i], y + RING_Y[i]) == id)
+				members |= 1 << i;
+
+		// Neighbours in one unbroken run around the pixel are connected to each other, so each run needs one seed.
+		// Start walking just after a pixel that isn't part of the component, so no run wraps around.
+		int start = Integer.numberOfTrailingZeros(~members);
+		if (start == 8)
+			return;
+
+		int seeds = 0;
+		boolean seeded = false;
+		for (int k = 1; k <= 8; k++) {
+			int i = start + k & 7;
+			if ((members & 1 << i) == 0) {
+				seeded = false;
+			} else if ((i & 1) != 0 && !seeded) {
+				search[seeds++].start(index(x + RING_X[i], y + RING_Y[i]));
+				seeded = true;
+			}
+		}
+
+		if (seeds > 1)
+			split(id, seeds);
+	}
+
+	/**
+	 * Explores the pieces from the seeds in lockstep, until all pieces but one are completely explored, or they all
+	 * turn out to be connected. The explored pieces get new ids, and the remaining piece keeps the old id.
+	 */
+	private void split(int id, int seeds) {
+		// Seeds that meet are part of the same piece.
+		int[] piece = {0, 1, 2, 3};
+		if (visited == null)
+			visited = new PagedInts(Canvas.indexLength(height, rowBits));
+		if (visitEpoch > Integer.MAX_VALUE - 8) {
+			visited.clear();
+			visitEpoch = 0;
+		}
+		visitEpoch += 4;
+		for (int i = 0; i < seeds; i++)
+			visited.set(search[i].pixels[0], visitEpoch + i);
+
+		while (true) {
+			int pieces = 0;
+			int unfinished = 0;
+			for (int i = 0; i < seeds; i++) {
+				if (root(piece, i) == i) {
+					pieces++;
+					if (!finished(piece, i, seeds))
+						unfinished++;
+				}
+			}
+			if (pieces == 1 || unfinished <= 1)
+				break;
+
+			for (int i = 0; i < seeds; i++) {
+				Search s = search[i];
+				if (s.head == s.size)
+					continue;
+
+				int p = s.pixels[s.head++];
+				for (int n = 0; n < 4; n++) {
+					int q = neighbour(p, n);
+					if (q < 0 || label.get(q) != id)
+						continue;
+
+					int mark = visited.get(q) - visitEpoch;
+					if (mark < 0 || mark >= 4) {
+						visited.set(q, visitEpoch + i);
+						s.add(q);
+					} else {
+						// Met another search.
+						int a = root(piece, mark);
+						int b = root(piece, i);
+						piece[Math.max(a, b)] = Math.min(a, b);
+					}
+				}
+			}
+		}
+
+		// The piece that is still being explored keeps the old id, or else the biggest piece.
+		int keep = -1;
+		for (int i = 0; i < seeds; i++)
+			if (root(piece, i) == i && !finished(piece, i, seeds))
+				keep = i;
+		if (keep < 0)
+			for (int i = 0; i < seeds; i++)
+				if (root(piece, i) == i && (keep < 0 || explored(piece, i, seeds) > explored(piece, keep, seeds)))
+					keep = i;
+
+		// Completely explored pieces get their own id.
+		for (int i = 0; i < seeds; i++) {
+			if (root(piece, i) != i || i == keep)
+				continue;
+
+			int newId = newComponent();
+			code.set(newId, code.get(id));
+			for (int j = 0; j < seeds; j++) {
+				if (root(piece, j) == i) {
+					Search s = search[j];
+					for (int k = 0; k < s.size; k++)
+						label.set(s.pixels[k], newId);
+					area.set(newId, area.get(newId) + s.size);
+				}
+			}
+
+			area.set(id, area.get(id) - area.get(newId));
+		}
+	}
+
+	private boolean finished(int[] piece, int i, int seeds) {
+		for (int j = 0; j < seeds; j++)
+			if (root(piece, j) == i && search[j].head < search[j].size)
+				return false;
+
+		return true;
+	}
+
+	private int explored(int[] piece, int i, int seeds) {
+		int size = 0;
+		for (int j = 0; j < seeds; j++)
+			if (root(piece, j) == i)
+				size += search[j].size;
+
+		return size;
+	}
+
+	private static int root(int[] piece, int i) {
+		while (piece[i] != i)
+			i = piece[i];
+
+		return i;
+	}
+
+	// The pixel joins the components of its new color. The biggest of them absorbs the others.
+	private void join(int p, int merge) {
+		int keep = -1;
+		for (int i = 0; i < 4; i++) {
+			int q = neighbour(p, i);
+			if ((merge & 1 << i) != 0 && q >= 0 && (keep < 0 || area.get(label.get(q)) > area.get(keep)))
+				keep = label.get(q);
+		}
+
+		if (keep < 0) {
+			keep = newComponent();
+		} else {
+			generation.set(keep, nextGeneration++);
+			touchedCode |= code.get(keep) != 0;
+
+			for (int i = 0; i < 4; i++) {
+				int q = neighbour(p, i);
+				int other = q >= 0 ? label.get(q) : keep;
+				if ((merge & 1 << i) != 0 && other != keep) {
+					touchedCode |= code.get(other) != 0;
+					code.set(keep, code.get(keep) | code.get(other));
+					area.set(keep, area.get(keep) + relabel(q, other, keep));
+				}
+			}
+		}
+
+		label.set(p, keep);
+		area.set(keep, area.get(keep) + 1);
+	}
+
+	private int labelAt(int x, int y) {
+		return x >= 0 && y >= 0 && x < width && y < height ? label.get(index(x, y)) : -1;
+	}
+
+	// The pixel index of neighbour i (up, left, right, down), or -1.
+	private int neighbour(int p, int i) {
+		int x = Canvas.indexX(p, rowBits);
+		int y = Canvas.indexY(p, rowBits);
+		switch (i) {
+			case 0:
+				return y > 0 ? index(x, y - 1) : -1;
+			case 1:
+				return x > 0 ? index(x - 1, y) : -1;
+			case 2:
+				return x < width - 1 ? index(x + 1, y) : -1;
+			default:
+				return y < height - 1 ? index(x, y + 1) : -1;
+		}
+	}
+
+	private int newComponent() {
+		if (components == capacity) {
+			capacity = components * 2;
+			area.ensureLength(capacity);
+			generation.ensureLength(capacity);
+			code.ensureLength(capacity);
+		}
+
+		area.set(components, 0);
+		generation.set(components, nextGeneration++);
+		code.set(components, 0);
+		return components++;
+	}
+
+	// Floods from pixel p over the pixels with the old id, giving them the new id. Returns the area.
+	private int relabel(int p, int oldId, int newId) {
+		int top = 0;
+		int count = 0;
+		label.set(p, newId);
+		stack[top++] = p;
+
+		while (top > 0) {
+			p = stack[--top];
+			count++;
+
+			if (top + 4 > stack.length)
+				stack = Arrays.copyOf(stack, stack.length * 2);
+
+			for (int i = 0; i < 4; i++) {
+				int q = neighbour(p, i);
+				if (q >= 0 && label.get(q) == oldId) {
+					label.set(q, newId);
+					stack[top++] = q;
+				}
+			}
+		}
+
+		return count;
+	}
+
+	// Reclaim the ids of components that have been relabeled.
+	private void compact() {
+		int[] map = new int[components];
+		Arrays.fill(map, -1);
+
+		int count = 0;
+		PagedInts newArea = new PagedInts(capacity);
+		PagedInts newGeneration = new PagedInts(capacity);
+		PagedInts newCode = new PagedInts(capacity);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int p = index(x, y);
+				int id = label.get(p);
+				if (map[id] < 0) {
+					map[id] = count;
+					newArea.set(count, area.get(id));
+					newGeneration.set(count, generation.get(id));
+					newCode.set(count, code.get(id));
+					count++;
+				}
+
+				if (map[id] != id)
+					label.set(p, map[id]);
+			}
+		}
+
+		area = newArea;
+		generation = newGeneration;
+		code = newCode;
+		components = count;
+	}
+
+	private static int find(int[] parent, int i) {
+		while (parent[i] != i) {
+			// Path halving.
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+
+		return i;
+	}
+
+	private static void union(int[] parent, int a, int b) {
+		a = find(parent, a);
+		b = find(parent, b);
+
+		if (a < b)
+			parent[b] = a;
+		else if (b < a)
+			parent[a] = b;
+	}
+
+	// One of the searches that explore the pieces of a split component.
+	private static final class Search {
+		int[] pixels = new int[16];
+		int head;
+		int size;
+
+		void start(int p) {
+			head = 0;
+			size = 0;
+			add(p);
+		}
+
+		void add(int p) {
+			if (size == pixels.length)
+				pixels = Arrays.copyOf(pixels, size * 2);
+
+			pixels[size++] = p;
+		}
+	}
+}
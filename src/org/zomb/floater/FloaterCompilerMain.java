@@ -0,0 +1,319 @@
+/*
+ * This file is part of Floater.
+ *
+ * Floater is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Floater is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Floater.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.zomb.floater;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compiles a program to a class file with a main method, so it can be run without the program file.
+ * <p>
+ * Floater has no conditional jumps, so the path a program takes is known until SET PIXEL changes it. The traces along
+ * that path are compiled to bytecode ahead of time, by {@link TraceCompiler} like at run time, and stored in the class
+ * file next to the program memory, all compressed to a few string constants. When started, the program runs in
+ * compiled mode with that code already in place, so it runs compiled code from the first instruction on instead of
+ * after interpreting its way up to it. The guards after every SET PIXEL leave the compiled code when the program
+ * changed itself, and the interpreter takes over from there, so the class needs floater.jar on the class path.
+ *
+ * @author Zom-B
+ * @version 1.2
+ * @since 1.2
+ */
+// Created 2026-10-18
+@SuppressWarnings({"UseOfSystemOutOrSystemErr", "CallToSystemExit"})
+public enum FloaterCompilerMain {
+	;
+
+	// Longest string constant, in characters. A class file stores each character in at most two bytes.
+	private static final int CHUNK_LENGTH = 32767;
+
+	private static final String RUN_DESCRIPTOR =
+			"(II[Ljava/lang/String;[Ljava/lang/String;[Ljava/lang/String;)V";
+
+	// Traces compiled ahead of time, at most.
+	private static final int MAX_TRACES = 1024;
+
+	public static void main(String... args) throws IOException {
+		if (args.length == 0)
+			showCommandLineSyntax();
+
+		File inFile = new File(args[0]);
+		File outDir = args.length > 1 ? new File(args[1]) : inFile.getAbsoluteFile().getParentFile();
+
+		BufferedImage img = ImageIO.read(inFile);
+		if (img == null) {
+			System.out.println("Not an image: " + inFile);
+			System.exit(-2);
+		}
+
+		String name = className(inFile.getName());
+		File outFile = new File(outDir, name + ".class");
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(outFile))) {
+			out.write(compile(name, img));
+		}
+
+		System.out.println("Written " + outFile);
+	}
+
+	private static void showCommandLineSyntax() {
+		System.out.println("Floater (esoteric programming language) compiler v1.2 by Zom-B");
+		System.out.println("https://github.com/Zom-B/Floater");
+		System.out.println("http://esolangs.org/wiki/Floater");
+		System.out.println();
+		System.out.println("Usage:");
+		System.out.println("java -cp floater.jar org.zomb.floater.FloaterCompilerMain <program>.png [<directory>]");
+		System.out.println("  Writes <program>.class next to the program, or in the given directory");
+		System.out.println("java -cp floater.jar:<directory> <program>");
+		System.out.println("  Discards changes to the program memory");
+		System.out.println("java -cp floater.jar:<directory> <program> <output>.png");
+		System.out.println("  Saves changes to the program memory");
+		System.out.println();
+		System.out.println("Options of the compiled program, before the output:");
+		System.out.println("--seed <number>");
+		System.out.println("  Makes RND return the same numbers in every run");
+		System.out.println("--max-steps <number>");
+		System.out.println("  Stops the program after this many instructions");
+		System.exit(-1);
+	}
+
+	// Turns a file name into a class name in the unnamed package.
+	private static String className(String fileName) {
+		int dot = fileName.lastIndexOf('.');
+		if (dot > 0)
+			fileName = fileName.substring(0, dot);
+
+		StringBuilder name = new StringBuilder(fileName.length() + 1);
+		for (int i = 0; i < fileName.length(); i++) {
+			char c = fileName.charAt(i);
+			name.append(Character.isJavaIdentifierPart(c) ? c : '_');
+		}
+		if (name.length() == 0 || !Character.isJavaIdentifierStart(name.charAt(0)))
+			name.insert(0, '_');
+
+		return name.toString();
+	}
+
+	/**
+	 * Creates a class with a main method that passes the program memory and the compiled traces to {@link #run}.
+	 */
+	static byte[] compile(String name, BufferedImage img) {
+		int width = img.getWidth();
+		int height = img.getHeight();
+		List<String> program = encode(pixelBytes(img.getRGB(0, 0, width, height, null, 0, width)));
+		List<String> traces = encode(compileTraces(img));
+
+		ClassFileWriter cf = new ClassFileWriter(name, "java/lang/Object");
+		ByteArrayOutputStream code = new ByteArrayOutputStream();
+
+		emitInt(cf, code, width);
+		emitInt(cf, code, height);
+		emitStrings(cf, code, program);
+		emitStrings(cf, code, traces);
+		code.write(0x2A); // aload_0
+		code.write(0xB8); // invokestatic
+		emitShort(code, cf.methodRef("org/zomb/floater/FloaterCompilerMain", "run", RUN_DESCRIPTOR));
+		code.write(0xB1); // return
+
+		byte[] bytes = code.toByteArray();
+		cf.addMethod(ClassFileWriter.ACC_PUBLIC | ClassFileWriter.ACC_STATIC, "main", "([Ljava/lang/String;)V", 7, 1,
+		             bytes, bytes.length);
+		return cf.toByteArray();
+	}
+
+	// The class files of the traces along the path of the program, one for every shape, in the order the shapes are
+	// first seen on the path. Shapes that couldn't be compiled have an empty class file.
+	private static byte[] compileTraces(BufferedImage img) {
+		FloaterInterpreter vm = new FloaterInterpreter();
+		vm.setCompiled(true);
+		vm.setImage(img);
+		TraceCompiler compiler = new TraceCompiler();
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			Set<TraceCompiler.Shape> shapes = Collections.newSetFromMap(new IdentityHashMap<>());
+			for (Trace trace : vm.recordPath(MAX_TRACES)) {
+				if (!shapes.add(trace.shape))
+					continue;
+
+				byte[] classFile = compiler.generate(trace);
+				if (classFile == null)
+					classFile = new byte[0];
+				out.writeInt(classFile.length);
+				out.write(classFile);
+			}
+		} catch (IOException ex) {
+			throw new AssertionError(ex);
+		}
+		return bytes.toByteArray();
+	}
+
+	// Puts a new array with the strings on the stack.
+	private static void emitStrings(ClassFileWriter cf, ByteArrayOutputStream code, List<String> strings) {
+		emitInt(cf, code, strings.size());
+		code.write(0xBD); // anewarray
+		emitShort(code, cf.classRef("java/lang/String"));
+		for (int i = 0; i < strings.size(); i++) {
+			code.write(0x59); // dup
+			emitInt(cf, code, i);
+			code.write(0x13); // ldc_w
+			emitShort(code, cf.stringConstant(strings.get(i)));
+			code.write(0x53); // aastore
+		}
+	}
+
+	private static void emitInt(ClassFileWriter cf, ByteArrayOutputStream code, int value) {
+		code.write(0x13); // ldc_w
+		emitShort(code, cf.intConstant(value));
+	}
+
+	private static void emitShort(ByteArrayOutputStream code, int value) {
+		code.write(value >> 8);
+		code.write(value);
+	}
+
+	private static byte[] pixelBytes(int[] rgb) {
+		byte[] raw = new byte[rgb.length * 3];
+		for (int i = 0; i < rgb.length; i++) {
+			raw[i * 3] = (byte) (rgb[i] >> 16);
+			raw[i * 3 + 1] = (byte) (rgb[i] >> 8);
+			raw[i * 3 + 2] = (byte) rgb[i];
+		}
+		return raw;
+	}
+
+	// Deflates the bytes, and stores each byte in a character.
+	private static List<String> encode(byte[] raw) {
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+		deflater.setInput(raw);
+		deflater.finish();
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		while (!deflater.finished())
+			out.write(buffer, 0, deflater.deflate(buffer));
+		deflater.end();
+
+		String data = new String(out.toByteArray(), StandardCharsets.ISO_8859_1);
+		List<String> chunks = new ArrayList<>();
+		for (int i = 0; i < data.length(); i += CHUNK_LENGTH)
+			chunks.add(data.substring(i, Math.min(data.length(), i + CHUNK_LENGTH)));
+		return chunks;
+	}
+
+	private static byte[] decode(String[] chunks) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+
+		Inflater inflater = new Inflater();
+		try {
+			for (String chunk : chunks) {
+				inflater.setInput(chunk.getBytes(StandardCharsets.ISO_8859_1));
+
+				// Each chunk has to be used up before the next one is given.
+				while (!inflater.needsInput() && !inflater.finished())
+					out.write(buffer, 0, inflater.inflate(buffer));
+			}
+
+			if (!inflater.finished())
+				throw new IOException("Corrupt program memory");
+		} catch (DataFormatException ex) {
+			throw new IOException("Corrupt program memory", ex);
+		} finally {
+			inflater.end();
+		}
+
+		return out.toByteArray();
+	}
+
+	/**
+	 * Entry point of compiled programs. Runs the program like {@link FloaterMain} does, with the traces that were
+	 * compiled ahead of time, and saves the changed program memory to the file given after the options, if any.
+	 */
+	public static void run(int width, int height, String[] program, String[] traces, String... args)
+			throws IOException {
+		Long seed = null;
+		long maxSteps = Long.MAX_VALUE;
+
+		int arg = 0;
+		while (arg < args.length && args[arg].startsWith("--")) {
+			if (args[arg].equals("--seed") && arg + 1 < args.length && args[arg + 1].matches("-?\\d+")) {
+				seed = Long.parseLong(args[arg + 1]);
+				arg += 2;
+			} else if (args[arg].equals("--max-steps") && arg + 1 < args.length && args[arg + 1].matches("\\d+")) {
+				maxSteps = Long.parseLong(args[arg + 1]);
+				arg += 2;
+			} else {
+				System.out.println("Options: [--seed <number>] [--max-steps <number>] [<output>.png]");
+				System.exit(-1);
+			}
+		}
+
+		byte[] raw = decode(program);
+		if (raw.length != width * height * 3)
+			throw new IOException("Corrupt program memory");
+
+		BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		int[] rgb = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+		for (int i = 0; i < rgb.length; i++)
+			rgb[i] = (raw[i * 3] & 0xFF) << 16 | (raw[i * 3 + 1] & 0xFF) << 8 | raw[i * 3 + 2] & 0xFF;
+
+		FloaterInterpreter vm = new FloaterInterpreter();
+		vm.setCompiled(true);
+		if (seed != null)
+			vm.setSeed(seed);
+		vm.setImage(img);
+		installTraces(vm, decode(traces));
+
+		if (!FloaterMain.simulate(vm, maxSteps, null, null))
+			return;
+
+		if (arg < args.length) {
+			try (OutputStream out = new BufferedOutputStream(new FileOutputStream(args[arg]))) {
+				ImageIO.write(vm.getImage(), "png", out);
+			}
+		}
+	}
+
+	// Records the traces along the path again, which gives the same shapes in the same order as when compiled.
+	private static void installTraces(FloaterInterpreter vm, byte[] classFiles) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(classFiles));
+		Set<TraceCompiler.Shape> shapes = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (Trace trace : vm.recordPath(MAX_TRACES)) {
+			if (!shapes.add(trace.shape))
+				continue;
+			if (in.available() == 0)
+				throw new IOException("Corrupt compiled traces");
+
+			byte[] classFile = new byte[in.readInt()];
+			in.readFully(classFile);
+			if (classFile.length > 0)
+				vm.install(trace, classFile);
+		}
+	}
+}
@@ -62,6 +62,10 @@ public enum FloaterConstants {
 	static final int ADDRESS_START = 1;
 
 	public static final String[] DIRECTIONS = {"Down", "Right", "Up", "Left"};
+
+	// The step the instruction pointer takes in each direction.
+	static final int[] DX = {0, 1, 0, -1};
+	static final int[] DY = {1, 0, -1, 0};
 	public static final String[] RUNSTATES = {"Running", "Paused", "Halted"};
 
 	private static final int STEPS_UNTIL_DUPLICATE = 6;
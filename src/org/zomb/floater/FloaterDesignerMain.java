@@ -37,6 +37,7 @@ import java.awt.geom.Line2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.io.*;
+import java.util.BitSet;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -53,6 +54,9 @@ public class FloaterDesignerMain extends JFrame implements WindowListener, Mouse
 	private static final String TITLE = "Floater designer";
 	private static final Stroke DEFAULT_STROKE = new BasicStroke(1, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER);
 
+	// Instructions per timer event when running without showing each step.
+	private static final long FAST_STEPS = 10000;
+
 	public static void main(String... args) {
 		SwingUtilities.invokeLater(() -> {
 			try {
@@ -127,6 +131,8 @@ public class FloaterDesignerMain extends JFrame implements WindowListener, Mouse
 	private boolean fast;
 	private final FloaterInterpreter vm = new FloaterInterpreter();
 	private BufferedImage doubleBuffer;
+	// The image in doubleBuffer. SET PIXEL replaces it when it makes it bigger.
+	private BufferedImage drawnImage;
 	private int mouseX;
 	private int mouseY;
 	private int mouseButton;
@@ -141,6 +147,9 @@ public class FloaterDesignerMain extends JFrame implements WindowListener, Mouse
 		setDefaultCloseOperation(WindowConstants.DO_NOTHING_ON_CLOSE);
 		addWindowListener(this);
 
+		// Show every character while stepping.
+		vm.setFlushPolicy(FlushPolicy.CHARACTER);
+
 		{
 			getContentPane().setLayout(new BorderLayout());
 
@@ -289,7 +298,7 @@ public class FloaterDesignerMain extends JFrame implements WindowListener, Mouse
 				if (vm.dir != 3) {
 					vm.dir = 1;
 				}
-				vm.ipx = vm.ipx < vm.img.getWidth() - 1 ? vm.ipx + 1 : vm.img.getWidth() - 1;
+				vm.ipx = vm.ipx < vm.width - 1 ? vm.ipx + 1 : vm.width - 1;
 				vm.fetch();
 				update(false, false);
 			}
@@ -311,7 +320,7 @@ public class FloaterDesignerMain extends JFrame implements WindowListener, Mouse
 				if (vm.dir != 2) {
 					vm.dir = 0;
 				}
-				vm.ipy = vm.ipy < vm.img.getHeight() - 1 ? vm.ipy + 1 : vm.img.getHeight() - 1;
+				vm.ipy = vm.ipy < vm.height - 1 ? vm.ipy + 1 : vm.height - 1;
 				vm.fetch();
 				update(false, false);
 			}
@@ -323,15 +332,12 @@ public class FloaterDesignerMain extends JFrame implements WindowListener, Mouse
 		Object o = e.getSource();
 
 		if (o == timer) {
-			vm.execute();
-			if (vm.runState > 0) {
+			StopReason reason = vm.run(fast ? FAST_STEPS : 1);
+			if (reason == StopReason.PAUSED || reason == StopReason.HALTED) {
 				stop();
 			}
-			if (vm.runState < 2) {
-				vm.fetch();
-			}
 			if (!fast) {
-				update(true, true);
+				update(false, true);
 			}
 		} else if (o == newButton) {
 			newImage();
@@ -375,30 +381,28 @@ public class FloaterDesignerMain extends JFrame implements WindowListener, Mouse
 		} else if (o == saveButton || o == saveAsButton) {
 			saveImage(o == saveAsButton);
 		} else if (o == narrowerButton) {
-			resizeImg(0, 0, FloaterConstants.smaller(vm.img.getWidth()), vm.img.getHeight
-					());
+			resizeImg(0, 0, FloaterConstants.smaller(vm.width), vm.height);
 			update(true, true);
 		} else if (o == widerButton) {
-			resizeImg(0, 0, FloaterConstants.bigger(vm.img.getWidth()), vm.img.getHeight());
+			resizeImg(0, 0, FloaterConstants.bigger(vm.width), vm.height);
 			update(true, true);
 		} else if (o == flatterButton) {
-			resizeImg(0, 0, vm.img.getWidth(), FloaterConstants.smaller(vm.img.getHeight
-					()));
+			resizeImg(0, 0, vm.width, FloaterConstants.smaller(vm.height));
 			update(true, true);
 		} else if (o == higherButton) {
-			resizeImg(0, 0, vm.img.getWidth(), FloaterConstants.bigger(vm.img.getHeight()));
+			resizeImg(0, 0, vm.width, FloaterConstants.bigger(vm.height));
 			update(true, true);
 		} else if (o == leftButton) {
-			resizeImg(-1, 0, vm.img.getWidth(), vm.img.getHeight());
+			resizeImg(-1, 0, vm.width, vm.height);
 			update(true, true);
 		} else if (o == rightButton) {
-			resizeImg(1, 0, vm.img.getWidth(), vm.img.getHeight());
+			resizeImg(1, 0, vm.width, vm.height);
 			update(true, true);
 		} else if (o == upButton) {
-			resizeImg(0, -1, vm.img.getWidth(), vm.img.getHeight());
+			resizeImg(0, -1, vm.width, vm.height);
 			update(true, true);
 		} else if (o == downButton) {
-			resizeImg(0, 1, vm.img.getWidth(), vm.img.getHeight());
+			resizeImg(0, 1, vm.width, vm.height);
 			update(true, true);
 		} else if (o == resetButton) {
 			if (timer.isRunning()) {
@@ -413,8 +417,7 @@ public class FloaterDesignerMain extends JFrame implements WindowListener, Mouse
 				if (vm.runState > 1) {
 					vm.reset();
 				} else {
-					vm.execute();
-					vm.fetch();
+					vm.run(1);
 				}
 				update(true, true);
 			}
@@ -460,7 +463,7 @@ public class FloaterDesignerMain extends JFrame implements WindowListener, Mouse
 					mouseX = (int) (e.getX() / zoom);
 					mouseY = (int) (e.getY() / zoom);
 
-					if (mouseX < 0 || mouseY < 0 || mouseX >= vm.img.getWidth() || mouseY >= vm.img.getHeight()) {
+					if (mouseX < 0 || mouseY < 0 || mouseX >= vm.width || mouseY >= vm.height) {
 						mouseX = -1; // Flags absence of cursor.
 						return;
 					}
@@ -498,7 +501,7 @@ public class FloaterDesignerMain extends JFrame implements WindowListener, Mouse
 		mouseX = (int) (e.getX() / zoom);
 		mouseY = (int) (e.getY() / zoom);
 
-		if (mouseX < 0 || mouseY < 0 || mouseX >= vm.img.getWidth() || mouseY >= vm.img.getHeight()) {
+		if (mouseX < 0 || mouseY < 0 || mouseX >= vm.width || mouseY >= vm.height) {
 			mouseX = -1; // Flags absence of cursor.
 		}
 
@@ -522,7 +525,7 @@ public class FloaterDesignerMain extends JFrame implements WindowListener, Mouse
 			mouseX = x;
 			mouseY = y;
 
-			if (x < 0 || y < 0 || x >= vm.img.getWidth() || y >= vm.img.getHeight()) {
+			if (x < 0 || y < 0 || x >= vm.width || y >= vm.height) {
 				mouseX = -1; // Flags absence of cursor.
 			} else {
 				if (mouseButton == MouseEvent.BUTTON1) {
@@ -553,7 +556,7 @@ public class FloaterDesignerMain extends JFrame implements WindowListener, Mouse
 				}
 			}
 
-			update(true, false);
+			update(false, false);
 		}
 	}
 
@@ -647,8 +650,8 @@ public class FloaterDesignerMain extends JFrame implements WindowListener, Mouse
 	}
 
 	private void newZoom() {
-		int width = vm.img.getWidth();
-		int height = vm.img.getHeight();
+		int width = vm.width;
+		int height = vm.height;
 		zoom = Math.min((imagePanel.getWidth() - 1.0f) / width, (imagePanel.getHeight() - 1.0f) / height);
 	}
 
@@ -717,7 +720,7 @@ public class FloaterDesignerMain extends JFrame implements WindowListener, Mouse
 			}
 
 			try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
-				ImageIO.write(vm.img, "png", out);
+				ImageIO.write(vm.getImage(), "png", out);
 
 				this.openedFile = file;
 				modified = false;
@@ -733,7 +736,7 @@ public class FloaterDesignerMain extends JFrame implements WindowListener, Mouse
 	private void resizeImg(int x, int y, int w, int h) {
 		BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
 		Graphics2D g = img.createGraphics();
-		g.drawImage(vm.img, x, y, null);
+		g.drawImage(vm.getImage(), x, y, null);
 		g.dispose();
 
 		vm.setImage(img);
@@ -774,30 +777,15 @@ public class FloaterDesignerMain extends JFrame implements WindowListener, Mouse
 	}
 
 	private void drawProgram(boolean redrawImage) {
-		if (redrawImage) {
-			int width = vm.img.getWidth();
-			int height = vm.img.getHeight();
-
+		if (redrawImage || vm.getImage() != drawnImage) {
 			newZoom();
 			imagePanel.clear(0);
 
 			// Draw image.
 			drawImage();
-
-			// Draw grid.
-			imagePanel.g.setPaint(new Color(0x404040));
-			if (zoom >= 3) {
-				for (int x = 1; x < width; x++) {
-					LINE.setLine(x * zoom, -1, x * zoom, height * zoom);
-					imagePanel.g.draw(LINE);
-				}
-				for (int y = 1; y < height; y++) {
-					LINE.setLine(-1, y * zoom, width * zoom, y * zoom);
-					imagePanel.g.draw(LINE);
-				}
-			}
-			RECTANGLE.setFrame(-1, -1, width * zoom + 1, height * zoom + 1);
-			imagePanel.g.draw(RECTANGLE);
+			drawGrid();
+			drawnImage = vm.getImage();
+			vm.getDirtyTiles().clear();
 
 			// Make doubleBuffer.
 			doubleBuffer = imagePanel.getImageCopy();
@@ -806,9 +794,56 @@ public class FloaterDesignerMain extends JFrame implements WindowListener, Mouse
 			imagePanel.g.translate(-0.5, -0.5);
 			imagePanel.g.drawImage(doubleBuffer, 0, 0, null);
 			imagePanel.g.translate(0.5, 0.5);
+
+			// Only draw what SET PIXEL changed, and keep it.
+			BitSet dirty = vm.getDirtyTiles();
+			if (!dirty.isEmpty()) {
+				drawTiles(dirty);
+				dirty.clear();
+				doubleBuffer = imagePanel.getImageCopy();
+			}
 		}
 	}
 
+	private void drawTiles(BitSet tiles) {
+		int tileSize = FloaterInterpreter.TILE_SIZE;
+		int tilesX = (vm.width + tileSize - 1) / tileSize;
+
+		for (int index = tiles.nextSetBit(0); index >= 0; index = tiles.nextSetBit(index + 1)) {
+			// Draw everything again, but only on the tile and the pixel around it. Clear it first, as the grid is
+			// drawn with antialiasing.
+			float x = index % tilesX * tileSize * zoom;
+			float y = index / tilesX * tileSize * zoom;
+			imagePanel.g.setClip(new Rectangle2D.Float(x - 1, y - 1, tileSize * zoom + 2, tileSize * zoom + 2));
+			imagePanel.g.setPaint(Color.BLACK);
+			imagePanel.g.fill(new Rectangle2D.Float(x - 2, y - 2, tileSize * zoom + 4, tileSize * zoom + 4));
+
+			drawImage();
+			drawGrid();
+		}
+
+		imagePanel.g.setClip(null);
+	}
+
+	private void drawGrid() {
+		int width = vm.width;
+		int height = vm.height;
+
+		imagePanel.g.setPaint(new Color(0x404040));
+		if (zoom >= 3) {
+			for (int x = 1; x < width; x++) {
+				LINE.setLine(x * zoom, -1, x * zoom, height * zoom);
+				imagePanel.g.draw(LINE);
+			}
+			for (int y = 1; y < height; y++) {
+				LINE.setLine(-1, y * zoom, width * zoom, y * zoom);
+				imagePanel.g.draw(LINE);
+			}
+		}
+		RECTANGLE.setFrame(-1, -1, width * zoom + 1, height * zoom + 1);
+		imagePanel.g.draw(RECTANGLE);
+	}
+
 	private void drawInstructionPointer() {
 		Color contrastColor = vm.opcode < 7 || vm.opcode == 8 ? Color.WHITE : Color.BLACK;
 
@@ -828,24 +863,24 @@ public class FloaterDesignerMain extends JFrame implements WindowListener, Mouse
 		if (zoom >= 4) {
 			float x = (vm.ipx + 0.5f) * zoom;
 			float y = (vm.ipy + 0.5f) * zoom;
-			float dx = (1 - Math.abs(1 - vm.dir)) * zoom * 0.5f;
-			float dy = (Math.abs(2 - vm.dir) - 1) * zoom * 0.5f;
+			float dx = FloaterConstants.DX[vm.dir] * zoom * 0.5f;
+			float dy = FloaterConstants.DY[vm.dir] * zoom * 0.5f;
 			LINE.setLine(x, y, x + dx, y + dy);
 			imagePanel.g.draw(LINE);
 		}
 	}
 
 	private void drawParamFlood() {
-		int width = vm.img.getWidth();
-		int height = vm.img.getHeight();
+		int width = vm.width;
+		int height = vm.height;
 
 		for (int y = 0; y < height; y++) {
 			for (int x = 0; x < width; x++) {
 				if (x == vm.ipx && y == vm.ipy) {
 					// Don't draw where the IP is at.
-				} else if (vm.flooded[y][x] > 0) {
+				} else if (vm.isFlooded(x, y)) {
 					drawParamDot(x, y);
-				} else if (zoom > 5 && vm.flooded[y][x] < 0) {
+				} else if (zoom > 5 && vm.isFloodExcluded(x, y)) {
 					drawParamCross(x, y);
 				}
 			}
@@ -853,12 +888,12 @@ public class FloaterDesignerMain extends JFrame implements WindowListener, Mouse
 	}
 
 	private void drawImage() {
-		int width = vm.img.getWidth();
-		int height = vm.img.getHeight();
+		int width = vm.width;
+		int height = vm.height;
 
 		// Images start at the top-left corner of a pixel instead of the center.
 		imagePanel.g.translate(-0.5, -0.5);
-		imagePanel.g.drawImage(vm.img, 0, 0, (int) (width * zoom) + 1, (int) (height * zoom) + 1, 0, 0, width, height,
+		imagePanel.g.drawImage(vm.getImage(), 0, 0, (int) (width * zoom) + 1, (int) (height * zoom) + 1, 0, 0, width, height,
 				null);
 		imagePanel.g.translate(0.5, 0.5);
 	}
@@ -0,0 +1,88 @@
+/*
+ * This file is part of Floater.
+ *
+ * Floater is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Floater is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Floater.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.zomb.floater;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Where INPUT reads from and PRINT writes to (see {@link FloaterInterpreter#setIO}). The interpreter buffers both
+ * sides, and only transfers whole blocks. To feed the output of one program into another, give them the sink and the
+ * source of a {@link java.nio.channels.Pipe}.
+ *
+ * @author Zom-B
+ * @version 1.2
+ * @since 1.2
+ */
+// Created 2026-10-18
+public interface FloaterIO {
+	/**
+	 * Reads at least one byte, if there's room, and waits until there is one. Returns the number of bytes read, or -1
+	 * at the end of the input.
+	 */
+	int read(ByteBuffer buffer) throws IOException;
+
+	/**
+	 * The number of bytes that can be read without waiting, 0 when it is not known, or -1 when the input is known to be
+	 * at its end.
+	 */
+	int available() throws IOException;
+
+	/**
+	 * Writes all remaining bytes.
+	 */
+	void write(ByteBuffer buffer) throws IOException;
+
+	void flush() throws IOException;
+
+	/**
+	 * Standard input and output of the process, as they are at this moment.
+	 */
+	@SuppressWarnings("UseOfSystemOutOrSystemErr")
+	static FloaterIO stdio() {
+		return new StreamIO(System.in, System.out);
+	}
+
+	/**
+	 * Input from memory, and output collected in memory. Either may be null for no input or to discard the output.
+	 */
+	static FloaterIO of(byte[] input, ByteArrayOutputStream output) {
+		return new StreamIO(input != null ? new ByteArrayInputStream(input) : null, output);
+	}
+
+	/**
+	 * Either may be null for no input or to discard the output.
+	 */
+	static FloaterIO of(InputStream input, OutputStream output) {
+		return new StreamIO(input, output);
+	}
+
+	/**
+	 * Blocking channels, like those of files, pipes and sockets. Either may be null for no input or to discard the
+	 * output.
+	 */
+	static FloaterIO of(ReadableByteChannel input, WritableByteChannel output) {
+		return new ChannelIO(input, output);
+	}
+}
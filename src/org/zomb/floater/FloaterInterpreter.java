@@ -19,9 +19,17 @@ package org.zomb.floater;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.io.IOException;
+import java.awt.image.DataBufferInt;
+import java.io.*;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Random;
+import java.util.BitSet;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.function.Predicate;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 /**
  * @author Zom-B
@@ -30,11 +38,31 @@ import java.util.Random;
  */
 // Created 2014-03-14
 public class FloaterInterpreter {
-	// Some random number source.
-	private static final Random RND = new Random();
-
-	// The program.
-	BufferedImage img;
+	/**
+	 * Width and height of the tiles in {@link #getDirtyTiles()}.
+	 */
+	public static final int TILE_SIZE = Canvas.TILE_SIZE;
+
+	// Longest trace to record.
+	private static final int MAX_TRACE_STEPS = 1024;
+	// Loops a compiled trace may make before returning to the interpreter.
+	private static final int MAX_TRACE_LOOPS = 1 << 16;
+	// Steps between looking at the clock for output that waited too long.
+	private static final long FLUSH_CHECK_STEPS = 1 << 16;
+
+	// Start of every snapshot ("FLTS"), and the version of its format.
+	private static final int SNAPSHOT_MAGIC = 0x464C5453;
+	private static final int SNAPSHOT_VERSION = 1;
+
+	// Increment of the random number generator, the same as the one SplittableRandom uses.
+	private static final long RANDOM_GAMMA = 0x9E3779B97F4A7C15L;
+
+	// The program image and its pixels. The image is always TYPE_INT_RGB, so its pixels can be accessed directly. It is
+	// null when running a shared program, or when SET PIXEL made it bigger, until getImage() is called.
+	private BufferedImage img;
+	private Canvas canvas;
+	int width;
+	int height;
 
 	// Instruction pointer.
 	int ipx;
@@ -44,8 +72,33 @@ public class FloaterInterpreter {
 	int dir;
 	int runState;
 
-	// The memory, stack and accumulator.
+	// Executed instructions, and how many may be executed before run() has to return.
+	private long steps;
+	private long stepLimit = Long.MAX_VALUE;
+
+	// Whether run() returns instead of waiting for input.
+	private boolean inputWait;
+
+	// Where INPUT reads from and PRINT writes to, and when the output is written out. Standard input and output are
+	// used when nothing else is set by the time they are first needed.
+	private FloaterIO io;
+	private InputBuffer input;
+	private OutputBuffer output;
+	private FlushPolicy flushPolicy = FlushPolicy.NEWLINE;
+	private long flushInterval = 100;
+	private long flushCheck;
+
+	// State of the random number generator of this interpreter, and the seed it starts from after a reset, if any. The
+	// numbers are the same as those of a SplittableRandom with the same seed, but the state can be saved.
+	private long random = new SplittableRandom().nextLong();
+	private Long seed;
+
+	// The memory, stack and accumulator. The value on top of the stack is kept in top instead of mem[sp].
 	private double[] mem = new double[64];
+	private double top;
+
+	// Replaces mem when set.
+	private OffHeapStack offHeapStack;
 
 	// Stack Pointer and memory size.
 	int sp;
@@ -56,22 +109,331 @@ public class FloaterInterpreter {
 	private double logFactor;
 	private double angFactor;
 
-	// Flood fill helper.
-	int[][] flooded;
+	// Flood fill helper. Pixels of the current flood hold floodEpoch, excluded pixels hold -floodEpoch.
+	private PagedInts flooded;
+	private int floodEpoch;
+	private int[] floodStack = new int[64];
+
+	// The shared program that is run, or null. Its decoded path fits the labels as long as they are a copy of its labels
+	// of the same size.
+	private FloaterProgram program;
+	private boolean programLabels;
+
+	// Connected areas of equal color.
+	private ComponentLabels labels;
+	// The component that was used as param instead of a flood, or -1.
+	private int floodComponent = -1;
+
+	// Pre-decoded program graph and hot traces through it, or null when not in compiled mode.
+	private boolean compiled;
+	private ProgramGraph graph;
+	private TraceCache traces;
+	private TraceCompiler compiler;
+
+	// Changes whenever SET PIXEL changes a decoded instruction.
+	int codeVersion;
 
 	// The fetched instruction:
 	int opcode;
 	int param;
+	int operation;
 	private boolean direction;
 
+	/**
+	 * Runs the image. The interpreter writes straight into the image when it is of type TYPE_INT_RGB.
+	 */
 	public void setImage(BufferedImage img) {
-		this.img = img;
+		setRaster(toIntRgb(img));
+		if (program != null && compiled)
+			compiler = new TraceCompiler();
+		program = null;
+		programLabels = false;
+		labels = new ComponentLabels(canvas.pixels(), width, height, canvas.rowBits);
+		init();
+	}
 
-		flooded = new int[img.getHeight()][img.getWidth()];
+	/**
+	 * Runs a program that might be run by other interpreters at the same time. The pixels SET PIXEL changes are only
+	 * changed for this interpreter, and {@link #getImage()} returns a copy of the image with them. The labeling and the
+	 * decoded program are shared too, and the interpreter only keeps the parts of them that SET PIXEL changed.
+	 */
+	public void setProgram(FloaterProgram program) {
+		img = null;
+		canvas = program.newCanvas();
+		width = program.width;
+		height = program.height;
+		this.program = program;
+		programLabels = true;
+		labels = program.newLabels();
+		if (compiled)
+			compiler = program.compiler;
+		init();
+	}
+
+	private void init() {
+		flooded = null;
+		floodComponent = -1;
+		codeVersion = 0;
+		newGraph();
 
 		reset();
 	}
 
+	// Forgets everything that was decoded, except for the decoded path of a shared program when it still fits.
+	private void newGraph() {
+		if (compiled && canvas != null) {
+			graph = programLabels ? program.newGraph() : new ProgramGraph(width, height, canvas.rowBits);
+			traces = new TraceCache(Canvas.indexLength(height, canvas.rowBits) << 2);
+		} else {
+			graph = null;
+			traces = null;
+		}
+	}
+
+	/**
+	 * Returns the program image, with the changes SET PIXEL made. When SET PIXEL made it bigger, the interpreter writes
+	 * straight into the returned image from then on.
+	 */
+	public BufferedImage getImage() {
+		// A canvas that grew is only put back into one image when it is needed.
+		if (img == null && canvas.grown())
+			setRaster(canvas.toImage());
+
+		return img != null ? img : canvas.toImage();
+	}
+
+	/**
+	 * Returns the tiles of the image that SET PIXEL wrote to since the set was last cleared. The tile at (tileX, tileY)
+	 * covers the pixels from (tileX * TILE_SIZE, tileY * TILE_SIZE), and has index tileY * tilesX + tileX, where tilesX is
+	 * the width of the image divided by {@link #TILE_SIZE}, rounded up. All tiles are marked when the image is replaced
+	 * or made bigger.
+	 * <p>
+	 * There is only one set, which its client clears after handling the tiles.
+	 */
+	public BitSet getDirtyTiles() {
+		return canvas.dirty;
+	}
+
+	// Copies the pixels of a tile, see Canvas.readTile.
+	void readTile(int index, int[] dest) {
+		canvas.readTile(index, dest);
+	}
+
+	/**
+	 * Writes everything needed to continue the program later with {@link #loadState}: the instruction pointer, the
+	 * stack, the configuration, the random number generator and the changes to the image. When running a shared
+	 * program ({@link #setProgram}), only the tiles of the image that SET PIXEL wrote to are saved, so snapshots of
+	 * big programs stay small and quick. Does not close the stream.
+	 */
+	public void saveState(OutputStream out) throws IOException {
+		// The output up to here belongs to the snapshot, and must not be lost when the program is resumed from it.
+		flushOutput();
+
+		DataOutputStream header = new DataOutputStream(out);
+		header.writeInt(SNAPSHOT_MAGIC);
+		header.writeInt(SNAPSHOT_VERSION);
+		header.flush();
+
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			DeflaterOutputStream compressed = new DeflaterOutputStream(out, deflater, 1 << 16);
+			DataOutputStream data = new DataOutputStream(new BufferedOutputStream(compressed, 1 << 16));
+
+			data.writeInt(width);
+			data.writeInt(height);
+			data.writeInt(ipx);
+			data.writeInt(ipy);
+			data.writeInt(dir);
+			data.writeInt(runState);
+			data.writeLong(steps);
+
+			data.writeInt(ioMode);
+			data.writeInt(gfxMode);
+			data.writeDouble(logFactor);
+			data.writeDouble(angFactor);
+
+			data.writeBoolean(seed != null);
+			data.writeLong(seed != null ? seed : 0);
+			data.writeLong(random);
+
+			data.writeInt(sp);
+			for (int i = 0; i < sp; i++)
+				data.writeDouble(offHeapStack != null ? offHeapStack.get(i) : mem[i]);
+			if (sp >= 0)
+				data.writeDouble(top);
+
+			canvas.writeDelta(data);
+
+			data.flush();
+			compressed.finish();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Continues from a snapshot written by {@link #saveState}. The interpreter must have been given the same program
+	 * the snapshot was taken of, and must not have run it yet. When the snapshot can't be read, the program has to be
+	 * given again.
+	 */
+	public void loadState(InputStream in) throws IOException {
+		DataInputStream header = new DataInputStream(in);
+		if (header.readInt() != SNAPSHOT_MAGIC)
+			throw new IOException("Not a Floater snapshot");
+		if (header.readInt() != SNAPSHOT_VERSION)
+			throw new IOException("Unsupported snapshot version");
+
+		DataInputStream data = new DataInputStream(new BufferedInputStream(new InflaterInputStream(in), 1 << 16));
+
+		int newWidth = data.readInt();
+		int newHeight = data.readInt();
+		if (newWidth < width || newHeight < height)
+			throw new IOException("The snapshot is of a different program");
+		int newIpx = data.readInt();
+		int newIpy = data.readInt();
+		int newDir = data.readInt();
+		int newRunState = data.readInt();
+		long newSteps = data.readLong();
+
+		int newIoMode = data.readInt();
+		int newGfxMode = data.readInt();
+		double newLogFactor = data.readDouble();
+		double newAngFactor = data.readDouble();
+
+		boolean seeded = data.readBoolean();
+		long newSeed = data.readLong();
+		long newRandom = data.readLong();
+
+		int newSp = data.readInt();
+		if (newSp < -1)
+			throw new IOException("Corrupt snapshot");
+		sp = -1;
+		if (offHeapStack != null)
+			offHeapStack = new OffHeapStack();
+		for (int i = 0; i <= newSp; i++)
+			push(data.readDouble());
+
+		// SET PIXEL made the image bigger.
+		if (newWidth != width || newHeight != height)
+			grow(newWidth, newHeight);
+		canvas.readDelta(data);
+
+		ipx = newIpx;
+		ipy = newIpy;
+		dir = newDir & 3;
+		runState = newRunState;
+		steps = newSteps;
+		flushCheck = 0;
+		ioMode = newIoMode;
+		gfxMode = newGfxMode;
+		logFactor = newLogFactor;
+		angFactor = newAngFactor;
+		seed = seeded ? Long.valueOf(newSeed) : null;
+		random = newRandom;
+
+		// Everything derived from the pixels is derived again.
+		labels = new ComponentLabels(canvas.pixels(), width, height, canvas.rowBits);
+		programLabels = false;
+		flooded = null;
+		floodComponent = -1;
+		newGraph();
+		codeVersion++;
+
+		fetch();
+	}
+
+	// Converts the image to TYPE_INT_RGB, unless it already is.
+	static BufferedImage toIntRgb(BufferedImage img) {
+		if (img.getType() == BufferedImage.TYPE_INT_RGB) {
+			return img;
+		}
+
+		BufferedImage newImg = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = newImg.createGraphics();
+		g.drawImage(img, 0, 0, null);
+		g.dispose();
+		return newImg;
+	}
+
+	// The new pixels are black, and only stored when they are written to. See getImage().
+	private void grow(int width, int height) {
+		img = null;
+		programLabels = false;
+		canvas = canvas.grow(width, height);
+		this.width = width;
+		this.height = height;
+	}
+
+	private void setRaster(BufferedImage img) {
+		this.img = img;
+		width = img.getWidth();
+		height = img.getHeight();
+		int[] pixels = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+		canvas = new Canvas(pixels, width, height, false);
+
+		// The unused top byte might contain anything.
+		for (int i = 0; i < pixels.length; i++)
+			pixels[i] &= 0xFFFFFF;
+	}
+
+	/**
+	 * In compiled mode, every codel is decoded only once for each direction it is entered from, and the result is
+	 * remembered until SET PIXEL changes the area of equal color the codel is part of. The parameter flood
+	 * ({@link #isFlooded}) is only updated when a codel is decoded for the first time, so it is of no use for
+	 * visualisation in this mode.
+	 * <p>
+	 * Paths that are entered often are recorded as traces, and {@link #execute()} runs a whole trace at once. Traces
+	 * that run often are compiled to JVM bytecode (see {@link TraceCompiler}).
+	 */
+	public void setCompiled(boolean compiled) {
+		this.compiled = compiled;
+
+		if (!compiled)
+			compiler = null;
+		else
+			compiler = program != null ? program.compiler : new TraceCompiler();
+
+		newGraph();
+	}
+
+	public boolean isCompiled() {
+		return compiled;
+	}
+
+	/**
+	 * Makes RND return the same numbers in every run, and restarts the numbers from the seed. A reset restarts them
+	 * too.
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+		random = seed;
+	}
+
+	/**
+	 * Keeps the stack outside the Java heap, for programs that use it as their main memory. The stack grows without
+	 * copying, and gives back memory when values are popped.
+	 */
+	public void setOffHeapStack(boolean offHeap) {
+		if (offHeap == (offHeapStack != null))
+			return;
+
+		if (offHeap) {
+			offHeapStack = new OffHeapStack();
+			for (int i = 0; i < sp; i++)
+				offHeapStack.set(i, mem[i]);
+			mem = null;
+		} else {
+			mem = new double[Math.max(64, Integer.highestOneBit(Math.max(sp, 1)) * 2)];
+			for (int i = 0; i < sp; i++)
+				mem[i] = offHeapStack.get(i);
+			offHeapStack = null;
+		}
+	}
+
+	public boolean isOffHeapStack() {
+		return offHeapStack != null;
+	}
+
 	public void reset() {
 		// Default configuration:
 		ioMode = 0;
@@ -85,9 +447,15 @@ public class FloaterInterpreter {
 		dir = 0;
 		runState = 0;
 		sp = -1;
+		steps = 0;
+		flushCheck = 0;
+		if (offHeapStack != null)
+			offHeapStack = new OffHeapStack();
+		if (seed != null)
+			random = seed;
 
 		// Try to find the start codel location.
-		for (int x = 0; x < img.getWidth(); x++) {
+		for (int x = 0; x < width; x++) {
 			if (getRawPixel(x, 0) != 0) {
 				ipx = x;
 				break;
@@ -98,280 +466,702 @@ public class FloaterInterpreter {
 	}
 
 	public void fetch() {
+		if (graph == null || !graph.contains(ipx, ipy)) {
+			decode();
+			return;
+		}
+
+		int node = graph.node(ipx, ipy, dir);
+		int code = graph.code.get(node);
+		if (code == 0 || graph.generation.get(node) != labels.generation(ipx, ipy)) {
+			decode();
+			graph.put(node, opcode, param, direction, outDir(), labels.generation(ipx, ipy));
+
+			// Black codels only depend on their own pixel.
+			if (getRawPixel(ipx, ipy) != 0)
+				labels.markCode(ipx, ipy);
+		} else {
+			opcode = code & ProgramGraph.OPCODE_MASK;
+			operation = code >> ProgramGraph.OPERATION_SHIFT;
+			param = graph.param.get(node);
+			direction = (code & ProgramGraph.DIRECTION) != 0;
+		}
+	}
+
+	private void decode() {
 		int color = getRawPixel(ipx, ipy);
 		opcode = decodeOpcode(color);
 		param = decodeParam(color);
+		operation = Operations.of(opcode, param);
 		direction = decodeDirection(color);
 	}
 
-	@SuppressWarnings({"SwitchStatementWithoutDefaultBranch", "NestedSwitchStatement", "SwitchStatementDensity",
-			"TooBroadScope"})
+	// The direction the just decoded instruction continues in.
+	private int outDir() {
+		if (opcode == 0xF && param == 2)
+			return direction ? dir + 1 & 3 : dir + 3 & 3;
+
+		return dir;
+	}
+
+	/**
+	 * Decodes the path a program takes until it changes itself, which is all of it for a program that doesn't: from the
+	 * start codel until the instruction pointer leaves the image or comes back to a node it passed. The components on
+	 * the path are marked as code, and the corridors along it are measured for code version 0.
+	 */
+	static ProgramGraph decodePath(Canvas canvas, ComponentLabels labels) {
+		FloaterInterpreter vm = new FloaterInterpreter();
+		vm.canvas = canvas;
+		vm.width = canvas.width;
+		vm.height = canvas.height;
+		vm.labels = labels;
+		vm.graph = new ProgramGraph(vm.width, vm.height, canvas.rowBits);
+		ProgramGraph graph = vm.graph;
+
+		// Floater has no conditional jumps, so the path only depends on the codels on it.
+		int[] path = new int[64];
+		int length = 0;
+		vm.reset();
+		while (true) {
+			if (length == path.length)
+				path = Arrays.copyOf(path, length * 2);
+			path[length++] = graph.node(vm.ipx, vm.ipy, vm.dir);
+
+			vm.dir = vm.outDir();
+			vm.ipx += FloaterConstants.DX[vm.dir];
+			vm.ipy += FloaterConstants.DY[vm.dir];
+			if (!graph.contains(vm.ipx, vm.ipy) || graph.code.get(graph.node(vm.ipx, vm.ipy, vm.dir)) != 0)
+				break;
+
+			vm.fetch();
+		}
+
+		for (int i = 0; i < length; i++)
+			graph.measureCorridor(path[i]);
+
+		return graph;
+	}
+
+	/**
+	 * Makes INPUT and PRINT use the given input and output instead of standard input and output. Null restores those.
+	 * What was printed so far is flushed first, and input that was read ahead but not used yet is dropped.
+	 */
+	public void setIO(FloaterIO io) {
+		flushOutput();
+		this.io = io;
+		input = null;
+		output = null;
+	}
+
+	/**
+	 * PRINT collects its output in a buffer, and writes it out according to the policy. The default is
+	 * {@link FlushPolicy#NEWLINE}, which shows prompts before INPUT too.
+	 */
+	public void setFlushPolicy(FlushPolicy flushPolicy) {
+		this.flushPolicy = flushPolicy;
+		if (output != null)
+			output.setPolicy(flushPolicy, flushInterval);
+	}
+
+	/**
+	 * Output that stays in the buffer longer than this is written out while the program runs, even when it doesn't print
+	 * anything else, unless it is 0. The default is 100 ms.
+	 */
+	public void setFlushInterval(long millis) {
+		flushInterval = millis;
+		if (output != null)
+			output.setPolicy(flushPolicy, flushInterval);
+	}
+
+	/**
+	 * Writes out what PRINT left in the buffer.
+	 */
+	public void flushOutput() {
+		if (output != null)
+			output.flush();
+	}
+
+	// Standard input and output are looked up the first time the program uses them.
+	private FloaterIO io() {
+		if (io == null)
+			io = FloaterIO.stdio();
+
+		return io;
+	}
+
+	private OutputBuffer outputBuffer() {
+		if (output == null) {
+			output = new OutputBuffer(io());
+			output.setPolicy(flushPolicy, flushInterval);
+		}
+
+		return output;
+	}
+
+	/**
+	 * When set, {@link #run} returns {@link StopReason#IO_WAIT} instead of executing an INPUT instruction that would
+	 * have to wait for input. At the end of the input INPUT doesn't wait, as far as the input can tell it's at its end
+	 * (see {@link FloaterIO#available()}).
+	 */
+	public void setInputWait(boolean inputWait) {
+		this.inputWait = inputWait;
+	}
+
+	/**
+	 * The number of instructions executed since the last reset.
+	 */
+	public long getSteps() {
+		return steps;
+	}
+
+	/**
+	 * Executes at most {@code maxSteps} instructions. A paused program continues where it paused.
+	 */
+	public StopReason run(long maxSteps) {
+		return runUntil(maxSteps, null);
+	}
+
+	/**
+	 * Executes at most {@code maxSteps} instructions, or until the stop condition is true for the next instruction. The
+	 * condition is tested after every instruction, so hot paths are not run as a whole while it is given.
+	 */
+	public StopReason runUntil(long maxSteps, Predicate<FloaterInterpreter> stopCondition) {
+		if (runState == 1)
+			runState = 0;
+
+		long end = maxSteps < Long.MAX_VALUE - steps ? steps + maxSteps : Long.MAX_VALUE;
+
+		try {
+			while (true) {
+				if (runState > 1)
+					return stop(StopReason.HALTED);
+				if (steps >= end)
+					return StopReason.BUDGET;
+
+				// Hot paths are only run as a whole when that doesn't skip anything run() has to stop for.
+				// Only INPUT looks at the input, so waiting for it costs nothing while the program computes.
+				stepLimit = end;
+				if (inputWait && opcode == 0x7 && param == 2 && !inputReady())
+					return stop(StopReason.IO_WAIT);
+				if (stopCondition != null)
+					stepLimit = steps + 1;
+
+				execute();
+				if (runState > 1)
+					return stop(StopReason.HALTED);
+				fetch();
+
+				if (steps >= flushCheck) {
+					flushCheck = steps + FLUSH_CHECK_STEPS;
+					if (output != null)
+						output.expire();
+				}
+
+				if (runState == 1)
+					return stop(StopReason.PAUSED);
+				if (stopCondition != null && stopCondition.test(this))
+					return StopReason.BREAKPOINT;
+			}
+		} finally {
+			stepLimit = Long.MAX_VALUE;
+		}
+	}
+
+	// Writes out the output when the flush policy says so.
+	@SuppressWarnings("SwitchStatementWithoutDefaultBranch")
+	private StopReason stop(StopReason reason) {
+		if (output != null) {
+			switch (reason) {
+				case HALTED:
+					output.flush();
+					break;
+				case PAUSED:
+					output.event(FlushPolicy.PAUSE);
+					break;
+				case IO_WAIT:
+					output.event(FlushPolicy.INPUT);
+					break;
+			}
+		}
+
+		return reason;
+	}
+
 	public void execute() {
 		// Halted?
 		if (dir == -1) {
 			return;
 		}
 
+		// Hot paths run as a whole.
+		if (traces != null && graph.contains(ipx, ipy)) {
+			int node = graph.node(ipx, ipy, dir);
+			// Self-modifying programs switch between a few variants of a path.
+			Trace trace = traces.get(node);
+			while (trace != null && trace.version != codeVersion && !revalidate(trace)) {
+				trace = trace.next;
+			}
+
+			if (trace != null) {
+				traces.use(node, trace);
+			} else if (traces.hit(node)) {
+				trace = recordTrace();
+				if (trace != null)
+					traces.put(node, trace);
+			}
+
+			// A trace with an INPUT in it would wait for input inside.
+			if (trace != null && trace.steps <= stepLimit - steps && (!trace.input || !inputWait || inputReady())) {
+				runTrace(trace);
+				return;
+			}
+
+			if (operation == Operations.NOP || operation == Operations.FORWARD) {
+				skipCorridor(node);
+				return;
+			}
+		}
+
 		boolean move = true;
+		steps++;
 
+		operate(operation, param);
+
+		if (move) {
+			// Advance instruction pointer.
+			ipx += FloaterConstants.DX[dir];
+			ipy += FloaterConstants.DY[dir];
+		}
+
+		// Exit check.
+		if (ipx < 0 || ipy < 0 || ipx >= width || ipy >= height) {
+			runState = 2;
+		}
+	}
+
+	@SuppressWarnings({"SwitchStatementWithoutDefaultBranch", "SwitchStatementDensity", "TooBroadScope"})
+	void operate(int operation, int param) {
 		double pop1;
 		double pop2;
 		double pop3;
 
-		switch (opcode) {
-			case 0x1: // PUSH
+		switch (operation) {
+			case Operations.NOP:
+			case Operations.FORWARD:
+				break;
+			case Operations.PUSH:
 				push(param);
 				break;
-			case 0x2:
-				switch (param) {
-					case 1: // DUP
-						pop1 = pop();
-						push(pop1);
-						push(pop1);
-						break;
-					case 2: // SWAP
-						pop1 = pop();
-						pop2 = pop();
-						push(pop1);
-						push(pop2);
-						break;
-				}
+			case Operations.DUP:
+				pop1 = peek();
+				replace(pop1);
+				push(pop1);
 				break;
-			case 0x3:
-				switch (param) {
-					case 1: // GET
-						pop1 = pop() - FloaterConstants.ADDRESS_START;
-						push(get(pop1));
-						break;
-					case 2: // SET
-						pop1 = pop() - FloaterConstants.ADDRESS_START;
-						pop2 = pop();
-						set(pop1, pop2);
-						break;
-				}
+			case Operations.SWAP:
+				pop1 = pop();
+				pop2 = peek();
+				replace(pop1);
+				push(pop2);
+				break;
+			case Operations.GET:
+				pop1 = pop() - FloaterConstants.ADDRESS_START;
+				push(get(pop1));
+				break;
+			case Operations.SET:
+				pop1 = pop() - FloaterConstants.ADDRESS_START;
+				pop2 = pop();
+				set(pop1, pop2);
 				break;
-			case 0x4:
+			case Operations.PAUSE:
 				runState = 1;
 				break;
-			case 0x5:
-				switch (param) {
-					case 1: // NOT
-						pop1 = pop();
-						push(~toLong(pop1));
-						break;
-					case 2: // AND
-						pop1 = pop();
-						pop2 = pop();
-						push(toLong(pop1) & toLong(pop2));
-						break;
-					case 3: // OR
-						pop1 = pop();
-						pop2 = pop();
-						push(toLong(pop1) | toLong(pop2));
-						break;
-					case 4: // XOR
-						pop1 = pop();
-						pop2 = pop();
-						push(toLong(pop1) ^ toLong(pop2));
-						break;
-				}
+			case Operations.NOT:
+				replace(~toLong(peek()));
 				break;
-			case 0x6:
-				switch (param) {
-					case 1: // EQ
-						pop1 = pop();
-						push(fromBool(pop1 == 0));
-						break;
-					case 2: // LT
-						pop1 = pop();
-						push(fromBool(pop1 < 0));
-						break;
-					case 3: // GT
-						pop1 = pop();
-						push(fromBool(pop1 > 0));
-						break;
-					case 4: // SIGN
-						pop1 = pop();
-						push(Math.signum(pop1));
-						break;
-				}
+			case Operations.AND:
+				pop1 = pop();
+				replace(toLong(pop1) & toLong(peek()));
 				break;
-			case 0x7:
-				switch (param) {
-					case 1: // PRINT
-						print(pop());
-						break;
-					case 2: // INPUT
-						push(input());
-						break;
-					case 3: // IO MODE
-						pop1 = pop();
-						pop();
-						ioMode = toInt(pop1);
-						break;
-				}
+			case Operations.OR:
+				pop1 = pop();
+				replace(toLong(pop1) | toLong(peek()));
 				break;
-			case 0x8:
-				switch (param) {
-					case 1: // SET PIXEL
-						pop1 = pop() - FloaterConstants.ADDRESS_START; // Y
-						pop2 = pop() - FloaterConstants.ADDRESS_START; // X
-						pop3 = pop();
-						setPixel(pop2, pop1, pop3);
-						break;
-					case 2: // GET PIXEL
-						pop1 = pop() - FloaterConstants.ADDRESS_START; // Y
-						pop2 = pop() - FloaterConstants.ADDRESS_START; // X
-						push(getPixel(pop2, pop1));
-						break;
-					case 3: // GFX MODE
-						pop1 = pop();
-						gfxMode = toInt(pop1);
-						break;
-				}
+			case Operations.XOR:
+				pop1 = pop();
+				replace(toLong(pop1) ^ toLong(peek()));
 				break;
-			case 0x9:
-				switch (param) {
-					case 1: // RND
-						push(RND.nextDouble());
-						break;
-					case 2: // PUSH IP
-						push(ipx + FloaterConstants.ADDRESS_START);
-						push(ipy + FloaterConstants.ADDRESS_START);
-						break;
-					case 3: // PUSH SP
-						push(sp + FloaterConstants.ADDRESS_START);
-						break;
-				}
+			case Operations.EQ:
+				replace(fromBool(peek() == 0));
 				break;
-			case 0xA:
-				switch (param) {
-					case 1: // ROUND
-						pop1 = pop();
-						push(Math.floor(pop1 + 0.5));
-						break;
-					case 2: // FLOOR
-						pop1 = pop();
-						push(Math.floor(pop1));
-						break;
-					case 3: // CEIL
-						pop1 = pop();
-						push(Math.ceil(pop1));
-						break;
-					case 4: // TRUNC
-						pop1 = pop();
-						push(Math.signum(pop1) * Math.floor(Math.abs(pop1)));
-						break;
-				}
+			case Operations.LT:
+				replace(fromBool(peek() < 0));
 				break;
-			case 0xB:
-				switch (param) {
-					case 1: // ADD
-						pop1 = pop();
-						pop2 = pop();
-						push(pop2 + pop1);
-						break;
-					case 2: // SUB
-						pop1 = pop();
-						pop2 = pop();
-						push(pop2 - pop1);
-						break;
-					case 3: // MUL
-						pop1 = pop();
-						pop2 = pop();
-						push(pop2 * pop1);
-						break;
-					case 4: // DIV
-						pop1 = pop();
-						pop2 = pop();
-						push(pop2 / pop1);
-						break;
-				}
+			case Operations.GT:
+				replace(fromBool(peek() > 0));
 				break;
-			case 0xC:
-				switch (param) {
-					case 1: // SQRT
-						pop1 = pop();
-						push(Math.sqrt(pop1));
-						break;
-					case 2: // POW
-						pop1 = pop();
-						pop2 = pop();
-						push(Math.pow(pop2, pop1));
-						break;
-					case 3: // EXP
-						pop1 = pop();
-						push(Math.exp(pop1 * logFactor));
-						break;
-					case 4: // LOG
-						pop1 = pop();
-						push(Math.log(pop1) / logFactor);
-						break;
-					case 5: // LOG BASE
-						pop1 = pop();
-						logFactor = Math.log(pop1);
-						break;
-				}
+			case Operations.SIGN:
+				replace(Math.signum(peek()));
 				break;
-			case 0xD:
-				switch (param) {
-					case 1: // SIN]]
-						pop1 = pop();
-						push(Math.sin(pop1 * angFactor));
-						break;
-					case 2: // COS
-						pop1 = pop();
-						push(Math.cos(pop1 * angFactor));
-						break;
-					case 3: // TAN
-						pop1 = pop();
-						push(Math.tan(pop1 * angFactor));
-						break;
-					case 4: // ATN
-						pop1 = pop();
-						push(Math.atan(pop1) / angFactor);
-						break;
-					case 5: // ANG BASE
-						pop1 = pop();
-						angFactor = 6.2831853071795864769252867665590058 / pop1;
-						break;
-				}
+			case Operations.PRINT:
+				print(pop());
 				break;
-			case 0xE:
-				break;
-			case 0x0F:
-				switch (param) {
-					case 1: // FORWARD
-						break;
-					case 2: // ROTATE
-						if (direction)
-							dir = dir + 1 & 3;
-						else
-							dir = dir + 3 & 3;
-						break;
-				}
+			case Operations.INPUT:
+				push(input());
+				break;
+			case Operations.IO_MODE:
+				pop1 = pop();
+				pop();
+				ioMode = toInt(pop1);
+				break;
+			case Operations.SET_PIXEL:
+				pop1 = pop() - FloaterConstants.ADDRESS_START; // Y
+				pop2 = pop() - FloaterConstants.ADDRESS_START; // X
+				pop3 = pop();
+				setPixel(pop2, pop1, pop3);
+				break;
+			case Operations.GET_PIXEL:
+				pop1 = pop() - FloaterConstants.ADDRESS_START; // Y
+				pop2 = pop() - FloaterConstants.ADDRESS_START; // X
+				push(getPixel(pop2, pop1));
+				break;
+			case Operations.GFX_MODE:
+				pop1 = pop();
+				gfxMode = toInt(pop1);
+				break;
+			case Operations.RND:
+				push(nextRandom());
+				break;
+			case Operations.PUSH_IP:
+				push(ipx + FloaterConstants.ADDRESS_START);
+				push(ipy + FloaterConstants.ADDRESS_START);
+				break;
+			case Operations.PUSH_SP:
+				push(sp + FloaterConstants.ADDRESS_START);
+				break;
+			case Operations.ROUND:
+				replace(Math.floor(peek() + 0.5));
+				break;
+			case Operations.FLOOR:
+				replace(Math.floor(peek()));
+				break;
+			case Operations.CEIL:
+				replace(Math.ceil(peek()));
+				break;
+			case Operations.TRUNC:
+				pop1 = peek();
+				replace(Math.signum(pop1) * Math.floor(Math.abs(pop1)));
+				break;
+			case Operations.ADD:
+				pop1 = pop();
+				replace(peek() + pop1);
+				break;
+			case Operations.SUB:
+				pop1 = pop();
+				replace(peek() - pop1);
+				break;
+			case Operations.MUL:
+				pop1 = pop();
+				replace(peek() * pop1);
+				break;
+			case Operations.DIV:
+				pop1 = pop();
+				replace(peek() / pop1);
+				break;
+			case Operations.SQRT:
+				replace(Math.sqrt(peek()));
+				break;
+			case Operations.POW:
+				pop1 = pop();
+				replace(Math.pow(peek(), pop1));
+				break;
+			case Operations.EXP:
+				replace(Math.exp(peek() * logFactor));
+				break;
+			case Operations.LOG:
+				replace(Math.log(peek()) / logFactor);
+				break;
+			case Operations.LOG_BASE:
+				pop1 = pop();
+				logFactor = Math.log(pop1);
+				break;
+			case Operations.SIN:
+				replace(Math.sin(peek() * angFactor));
+				break;
+			case Operations.COS:
+				replace(Math.cos(peek() * angFactor));
+				break;
+			case Operations.TAN:
+				replace(Math.tan(peek() * angFactor));
+				break;
+			case Operations.ATN:
+				replace(Math.atan(peek()) / angFactor);
+				break;
+			case Operations.ANG_BASE:
+				pop1 = pop();
+				angFactor = 6.2831853071795864769252867665590058 / pop1;
+				break;
+			case Operations.DEFLECT:
+				if (direction)
+					dir = dir + 1 & 3;
+				else
+					dir = dir + 3 & 3;
 				break;
 		}
+	}
 
-		if (move) {
-			// Advance instruction pointer.
-			ipx += 1 - Math.abs(1 - dir);
-			ipy += Math.abs(2 - dir) - 1;
+	/**
+	 * Follows the program graph from the instruction pointer, up to the first PAUSE, the edge of the image, or a codel
+	 * that was visited before. SET PIXEL might change the program, so the rest of the trace gets a guard.
+	 */
+	private Trace recordTrace() {
+		// The instruction about to be executed is PAUSE.
+		if (opcode == 0x4) {
+			return null;
+		}
+
+		int startX = ipx;
+		int startY = ipy;
+		int startDir = dir;
+		int start = graph.node(ipx, ipy, dir);
+
+		Trace trace = new Trace(graph, codeVersion);
+		traces.startRecording();
+		while (true) {
+			int node = graph.node(ipx, ipy, dir);
+			traces.visit(node);
+			trace.addNode(node, graph.generation.get(node), graph.code.get(node), graph.param.get(node));
+
+			if (opcode == 0x9 && param == 2)
+				trace.addPushIp(ipx, ipy);
+			else
+				trace.addInstruction(opcode, param);
+
+			boolean modifies = opcode == 0x8 && param == 1;
+
+			dir = outDir();
+			ipx += FloaterConstants.DX[dir];
+			ipy += FloaterConstants.DY[dir];
+
+			if (modifies)
+				trace.addGuard(ipx, ipy, dir);
+
+			if (!graph.contains(ipx, ipy) || traces.visited(graph.node(ipx, ipy, dir)) ||
+			    trace.steps == MAX_TRACE_STEPS) {
+				break;
+			}
+
+			fetch();
+			if (opcode == 0x4) {
+				break;
+			}
+		}
+
+		trace.setEnd(ipx, ipy, dir);
+		trace.loops = graph.contains(ipx, ipy) && graph.node(ipx, ipy, dir) == start;
+		if (compiler != null)
+			trace.shape = compiler.shape(trace);
+
+		ipx = startX;
+		ipy = startY;
+		dir = startDir;
+		fetch();
+
+		return trace;
+	}
+
+	/**
+	 * Records the traces along the path of the program, like they would be recorded once they're hot: the first one at
+	 * the start, and every next one where the previous one ends, until the path leaves the image or comes back to a
+	 * trace. Only in compiled mode, before the program runs. The instruction pointer is back at the start afterwards.
+	 */
+	List<Trace> recordPath(int maxTraces) {
+		List<Trace> path = new ArrayList<>();
+		for (int i = width * height << 2; i > 0 && path.size() < maxTraces && graph.contains(ipx, ipy); i--) {
+			int node = graph.node(ipx, ipy, dir);
+			if (traces.get(node) != null)
+				break;
+
+			Trace trace = recordTrace();
+			if (trace != null) {
+				traces.put(node, trace);
+				path.add(trace);
+				ipx = trace.exitX[0];
+				ipy = trace.exitY[0];
+				dir = trace.exitDir[0];
+			} else {
+				// PAUSE, the next trace starts after it.
+				dir = outDir();
+				ipx += FloaterConstants.DX[dir];
+				ipy += FloaterConstants.DY[dir];
+			}
+
+			if (graph.contains(ipx, ipy))
+				fetch();
 		}
 
+		reset();
+		return path;
+	}
+
+	// Uses code generated ahead of time for the shape of the trace (see TraceCompiler.generate()).
+	void install(Trace trace, byte[] classFile) {
+		compiler.install(trace.shape, classFile);
+	}
+
+	/**
+	 * Moves the instruction pointer over all instructions without effect in front of it at once. They are counted as
+	 * steps, and the corridor is measured again after the code changed.
+	 */
+	private void skipCorridor(int node) {
+		if (graph.corridor.get(node) == 0 || graph.corridorVersion.get(node) != codeVersion) {
+			graph.corridor.set(node, measureCorridor());
+			graph.corridorVersion.set(node, codeVersion);
+		}
+
+		int length = (int) Math.min(graph.corridor.get(node), stepLimit - steps);
+		steps += length;
+		ipx += FloaterConstants.DX[dir] * length;
+		ipy += FloaterConstants.DY[dir] * length;
+
 		// Exit check.
-		if (ipx < 0 || ipy < 0 || ipx >= img.getWidth() || ipy >= img.getHeight()) {
+		if (ipx < 0 || ipy < 0 || ipx >= width || ipy >= height) {
 			runState = 2;
 		}
 	}
 
+	private int measureCorridor() {
+		int startX = ipx;
+		int startY = ipy;
+
+		int length = 0;
+		while (operation == Operations.NOP || operation == Operations.FORWARD) {
+			length++;
+			ipx += FloaterConstants.DX[dir];
+			ipy += FloaterConstants.DY[dir];
+			if (!graph.contains(ipx, ipy))
+				break;
+
+			fetch();
+		}
+
+		ipx = startX;
+		ipy = startY;
+		fetch();
+
+		return length;
+	}
+
+	private void runTrace(Trace trace) {
+		CompiledTrace code = null;
+		if (trace.shape != null) {
+			compiler.hit(trace);
+			code = trace.shape.code;
+		}
+
+		int exit;
+		if (code != null) {
+			int loops = (int) Math.min(MAX_TRACE_LOOPS, (stepLimit - steps) / trace.steps);
+			exit = code.run(this, trace, loops);
+			steps += (long) (loops - trace.loopsLeft - 1) * trace.steps;
+		} else {
+			exit = interpretTrace(trace);
+		}
+		steps += trace.exitSteps[exit];
+
+		ipx = trace.exitX[exit];
+		ipy = trace.exitY[exit];
+		dir = trace.exitDir[exit];
+
+		// Exit check.
+		if (ipx < 0 || ipy < 0 || ipx >= width || ipy >= height) {
+			runState = 2;
+		}
+	}
+
+	// Runs the trace once, and returns the exit it took.
+	private int interpretTrace(Trace trace) {
+		double value;
+
+		for (int i = 0; i < trace.size; i++) {
+			switch (trace.op[i]) {
+				case Trace.INSTRUCTION:
+					operate(Operations.of(trace.instruction[i] >> 8, trace.instruction[i] & 0xFF), 0);
+					break;
+				case Trace.PUSH:
+					push(trace.constant[i]);
+					break;
+				case Trace.PUSH_ADD:
+					replace(peek() + trace.constant[i]);
+					break;
+				case Trace.PUSH_SUB:
+					replace(peek() - trace.constant[i]);
+					break;
+				case Trace.PUSH_MUL:
+					replace(peek() * trace.constant[i]);
+					break;
+				case Trace.PUSH_DIV:
+					replace(peek() / trace.constant[i]);
+					break;
+				case Trace.DUP_MUL:
+					value = peek();
+					replace(value * value);
+					break;
+				case Trace.GUARD:
+					if (codeVersion != trace.version && !revalidate(trace))
+						return trace.instruction[i];
+					break;
+			}
+		}
+
+		return 0;
+	}
+
+	/**
+	 * Checks whether the trace still follows the program after the code changed. Nodes in areas of equal color that
+	 * changed are decoded again, and compared to what they were when the trace was recorded.
+	 */
+	boolean revalidate(Trace trace) {
+		if (trace.graph != graph)
+			return false;
+
+		int oldX = ipx;
+		int oldY = ipy;
+		int oldDir = dir;
+
+		boolean valid = true;
+		for (int i = 0; i < trace.nodes && valid; i++) {
+			int node = trace.node[i];
+			int generation = labels.generation(node >> 2);
+			if (generation == trace.generation[i])
+				continue;
+
+			ipx = Canvas.indexX(node >> 2, graph.rowBits);
+			ipy = Canvas.indexY(node >> 2, graph.rowBits);
+			dir = node & 3;
+			fetch();
+
+			valid = graph.code.get(node) == trace.code[i] && graph.param.get(node) == trace.param[i];
+			if (valid)
+				trace.generation[i] = generation;
+		}
+
+		ipx = oldX;
+		ipy = oldY;
+		dir = oldDir;
+		fetch();
+
+		if (valid)
+			trace.version = codeVersion;
+		return valid;
+	}
+
 	public int getRawPixel(int x, int y) {
 		// Safely get.
-		if (x < 0 || y < 0 || x >= img.getWidth() || y >= img.getHeight()) {
+		if (x < 0 || y < 0 || x >= width || y >= height) {
 			return 0;
 		}
 
-		return img.getRGB(x, y) & 0xFFFFFF;
+		return canvas.get(x, y);
 	}
 
 	public static int decodeOpcode(int color) {
@@ -392,133 +1182,146 @@ public class FloaterInterpreter {
 	}
 
 	private int decodeParam(int color) {
-		// Prepare.
-		for (int y = 0; y < img.getHeight(); y++)
-			Arrays.fill(flooded[y], 0);
+		// Prepare. A new epoch forgets the previous flood without clearing it.
+		if (flooded == null) {
+			flooded = new PagedInts(width * height);
+		} else if (floodEpoch == Integer.MAX_VALUE) {
+			flooded.clear();
+			floodEpoch = 0;
+		}
+		floodEpoch++;
+		floodComponent = -1;
 
 		// No param.
 		if (color == 0) return 0;
 
-		// Prevent previous codel area from contributing to the param.
-		if (getRawPixel(ipx - (1 - Math.abs(1 - dir)), ipy - (Math.abs(2 - dir) - 1)) == color) {
-			// go back;
-			int xb = ipx - (1 - Math.abs(1 - dir));
-			int yb = ipy - (Math.abs(2 - dir) - 1);
-			flooded[yb][xb] = -1;
-
-			{ // go right-hand-side
-				int xs = xb;
-				int ys = yb;
-				int x = ipx;
-				int y = ipy;
-				while (true) {
-					xs -= Math.abs(2 - dir) - 1;
-					ys += 1 - Math.abs(1 - dir);
-					x -= Math.abs(2 - dir) - 1;
-					y += 1 - Math.abs(1 - dir);
-					if (getRawPixel(xs, ys) != color || getRawPixel(x, y) != color) break;
-
-					flooded[ys][xs] = -1;
-				}
-			}
+		int dx = FloaterConstants.DX[dir];
+		int dy = FloaterConstants.DY[dir];
 
-			{ // go left-hand-side
-				int xs = xb;
-				int ys = yb;
-				int x = ipx;
-				int y = ipy;
-				while (true) {
-					xs += Math.abs(2 - dir) - 1;
-					ys -= 1 - Math.abs(1 - dir);
-					x += Math.abs(2 - dir) - 1;
-					y -= 1 - Math.abs(1 - dir);
-					if (getRawPixel(xs, ys) != color || getRawPixel(x, y) != color) break;
-
-					flooded[ys][xs] = -1;
-				}
-			}
-		}
+		// Prevent previous codel area from contributing to the param.
+		boolean excluded = excludeCodel(color, ipx - dx, ipy - dy, dx, dy);
 
 		// Prevent next codel are from contributing to the param.
-		if (getRawPixel(ipx + 1 - Math.abs(1 - dir), ipy + Math.abs(2 - dir) - 1) == color) {
-			// go back;
-			int xb = ipx + 1 - Math.abs(1 - dir);
-			int yb = ipy + Math.abs(2 - dir) - 1;
-			flooded[yb][xb] = -1;
-
-			{ // go right-hand-side
-				int xs = xb;
-				int ys = yb;
-				int x = ipx;
-				int y = ipy;
-				while (true) {
-					xs -= Math.abs(2 - dir) - 1;
-					ys += 1 - Math.abs(1 - dir);
-					x -= Math.abs(2 - dir) - 1;
-					y += 1 - Math.abs(1 - dir);
-					if (getRawPixel(xs, ys) != color || getRawPixel(x, y) != color) break;
-
-					flooded[ys][xs] = -1;
-				}
-			}
+		excluded |= excludeCodel(color, ipx + dx, ipy + dy, dx, dy);
 
-			{ // go left-hand-side
-				int xs = xb;
-				int ys = yb;
-				int x = ipx;
-				int y = ipy;
-				while (true) {
-					xs += Math.abs(2 - dir) - 1;
-					ys -= 1 - Math.abs(1 - dir);
-					x += Math.abs(2 - dir) - 1;
-					y -= 1 - Math.abs(1 - dir);
-					if (getRawPixel(xs, ys) != color || getRawPixel(x, y) != color) break;
-
-					flooded[ys][xs] = -1;
-				}
-			}
+		// Without exclusions the param is the whole area. Otherwise, the exclusions might cut the area in pieces.
+		if (!excluded) {
+			floodComponent = labels.label(ipx, ipy);
+			return labels.area(ipx, ipy);
 		}
 
 		// Flood fill while counting the area.
-		int area = floodFill(color, 0, ipx, ipy);
-		return area;
+		return floodFill(color, ipx, ipy);
+	}
+
+	private boolean excludeCodel(int color, int xb, int yb, int dx, int dy) {
+		if (getRawPixel(xb, yb) != color) return false;
+
+		flooded.set(yb * width + xb, -floodEpoch);
+
+		// go right-hand-side
+		excludeStrip(color, xb, yb, -dy, dx);
+
+		// go left-hand-side
+		excludeStrip(color, xb, yb, dy, -dx);
+		return true;
 	}
 
-	private int floodFill(int opcode, int area, int x, int y) {
+	private void excludeStrip(int color, int xs, int ys, int sx, int sy) {
+		int x = ipx;
+		int y = ipy;
+		while (true) {
+			xs += sx;
+			ys += sy;
+			x += sx;
+			y += sy;
+			if (getRawPixel(xs, ys) != color || getRawPixel(x, y) != color) break;
+
+			flooded.set(ys * width + xs, -floodEpoch);
+		}
+	}
+
+	private int floodFill(int color, int x, int y) {
 		// Check if the coordinate is unavailable.
-		if (flooded[y][x] != 0 || getRawPixel(x, y) != opcode) {
-			return area;
+		if (!floodable(color, x, y)) {
+			return 0;
 		}
 
-		// Take this coordinate.
-		area++;
-		flooded[y][x] = area;
+		// Explicit stack instead of recursion, so big areas can't overflow the thread stack.
+		int area = 0;
+		int top = 0;
+		flooded.set(y * width + x, floodEpoch);
+		floodStack[top++] = y * width + x;
 
-		// Handle the four wind directions.
-		if (y > 0)
-			area = floodFill(opcode, area, x, y - 1);
-		if (x > 0)
-			area = floodFill(opcode, area, x - 1, y);
-		if (x < img.getWidth() - 1)
-			area = floodFill(opcode, area, x + 1, y);
-		if (y < img.getHeight() - 1)
-			area = floodFill(opcode, area, x, y + 1);
+		while (top > 0) {
+			// Take this coordinate.
+			int p = floodStack[--top];
+			area++;
+
+			x = p % width;
+			y = p / width;
+
+			// Make sure all four neighbours fit.
+			if (top + 4 > floodStack.length)
+				floodStack = Arrays.copyOf(floodStack, floodStack.length * 2);
+
+			// Handle the four wind directions.
+			if (y > 0 && floodable(color, x, y - 1)) {
+				flooded.set(p - width, floodEpoch);
+				floodStack[top++] = p - width;
+			}
+			if (x > 0 && floodable(color, x - 1, y)) {
+				flooded.set(p - 1, floodEpoch);
+				floodStack[top++] = p - 1;
+			}
+			if (x < width - 1 && floodable(color, x + 1, y)) {
+				flooded.set(p + 1, floodEpoch);
+				floodStack[top++] = p + 1;
+			}
+			if (y < height - 1 && floodable(color, x, y + 1)) {
+				flooded.set(p + width, floodEpoch);
+				floodStack[top++] = p + width;
+			}
+		}
 
 		return area;
 	}
 
+	private boolean floodable(int color, int x, int y) {
+		int p = y * width + x;
+		int mark = flooded.get(p);
+		return mark != floodEpoch && mark != -floodEpoch && canvas.get(x, y) == color;
+	}
+
+	boolean isFlooded(int x, int y) {
+		if (floodComponent >= 0)
+			return labels.label(x, y) == floodComponent;
+
+		return flooded != null && flooded.get(y * width + x) == floodEpoch;
+	}
+
+	boolean isFloodExcluded(int x, int y) {
+		return flooded != null && flooded.get(y * width + x) == -floodEpoch;
+	}
 	private boolean decodeDirection(int color) {
-		return getRawPixel(ipx - Math.abs(2 - dir) + 1, ipy + 1 - Math.abs(1 - dir)) == color;
+		return getRawPixel(ipx - FloaterConstants.DY[dir], ipy + FloaterConstants.DX[dir]) == color;
 	}
 
 	public void push(double param) {
-		sp++;
-
-		// Expand memory if necessary.
-		if (sp == mem.length)
-			mem = Arrays.copyOf(mem, mem.length * 2);
+		if (sp >= 0) {
+			if (offHeapStack != null) {
+				offHeapStack.set(sp, top);
+			} else {
+				// Expand memory if necessary.
+				if (sp == mem.length)
+					mem = Arrays.copyOf(mem, mem.length * 2);
+
+				mem[sp] = top;
+			}
+		}
 
-		mem[sp] = param;
+		sp++;
+		top = param;
 	}
 
 	public double pop() {
@@ -526,11 +1329,35 @@ public class FloaterInterpreter {
 		if (sp < 0)
 			return 0;
 
-		double result = mem[sp];
+		double result = top;
 		sp--;
+		if (sp >= 0)
+			top = offHeapStack != null ? offHeapStack.pop(sp) : mem[sp];
 		return result;
 	}
 
+	// SplitMix64, like SplittableRandom.nextDouble().
+	private double nextRandom() {
+		long z = random += RANDOM_GAMMA;
+		z = (z ^ z >>> 30) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ z >>> 27) * 0x94D049BB133111EBL;
+		z ^= z >>> 31;
+		return (z >>> 11) * 0x1.0p-53;
+	}
+
+	// The value on top of the stack, without popping it.
+	private double peek() {
+		return sp < 0 ? 0 : top;
+	}
+
+	// Replaces the value on top of the stack, like a pop followed by a push.
+	private void replace(double value) {
+		if (sp < 0)
+			sp = 0;
+
+		top = value;
+	}
+
 	public void set(double addressDouble, double value) {
 		int address = (int) Math.round(addressDouble);
 
@@ -541,7 +1368,12 @@ public class FloaterInterpreter {
 		// Bounds check.
 		if (address < 0 || address > sp) return;
 
-		mem[address] = value;
+		if (address == sp)
+			top = value;
+		else if (offHeapStack != null)
+			offHeapStack.set(address, value);
+		else
+			mem[address] = value;
 	}
 
 	public double get(double addressDouble) {
@@ -555,7 +1387,10 @@ public class FloaterInterpreter {
 		if (address < 0 || address > sp)
 			return 0;
 
-		return mem[address];
+		if (address == sp)
+			return top;
+
+		return offHeapStack != null ? offHeapStack.get(address) : mem[address];
 	}
 
 	@SuppressWarnings("SwitchStatementWithoutDefaultBranch")
@@ -567,8 +1402,8 @@ public class FloaterInterpreter {
 		if (x < 0 || y < 0) return;
 
 		// Enlarge when necessary.
-		int w = img.getWidth();
-		int h = img.getHeight();
+		int w = width;
+		int h = height;
 		if (x >= w || y >= h) {
 			while (x >= w) {
 				w = FloaterConstants.bigger(w);
@@ -577,15 +1412,26 @@ public class FloaterInterpreter {
 				h = FloaterConstants.bigger(h);
 			}
 
-			BufferedImage newImg = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
-			Graphics2D g = newImg.createGraphics();
-			g.drawImage(this.img, 0, 0, null);
-			g.dispose();
-
-			this.img = newImg;
-			flooded = new int[h][w];
+			grow(w, h);
+
+			flooded = null;
+			labels = labels.grow(canvas);
+			floodComponent = -1;
+			if (graph != null) {
+				// The traces stay, and are checked again as the black components along the old edges changed.
+				if (graph.rowBits == canvas.rowBits) {
+					graph.grow(w, h);
+					traces.grow(Canvas.indexLength(h, canvas.rowBits) << 2);
+				} else {
+					graph = graph.resize(w, h, canvas.rowBits);
+					traces = new TraceCache(Canvas.indexLength(h, canvas.rowBits) << 2);
+				}
+				codeVersion++;
+			}
 		}
 
+		int oldColor = getRawPixel(x, y);
+
 		int color;
 		int red;
 		int grn;
@@ -594,38 +1440,62 @@ public class FloaterInterpreter {
 		switch (gfxMode) {
 			case 0: // DOS16
 				color = Math.floorMod((int) Math.floor(colorDouble), 16);
-				img.setRGB(x, y, FloaterConstants.DOS16[color]);
+				canvas.set(x, y, FloaterConstants.DOS16[color]);
 				break;
 			case 1: // Float GRAYSCALE
 				color = (int) Math.round(Math.max(0, Math.min(1, colorDouble)) * 255);
-				img.setRGB(x, y, color * 0x10101);
+				canvas.set(x, y, color * 0x10101);
 				break;
 			case 2: // 6BPP
 				color = Math.floorMod((int) Math.floor(colorDouble), 64);
 				red = color >> 4;
 				grn = color >> 2 & 3;
 				blu = color & 3;
-				img.setRGB(x, y, ((red << 8 | grn) << 8 | blu) << 6);
+				canvas.set(x, y, ((red << 8 | grn) << 8 | blu) << 6);
 				break;
 			case 3: // 12BPP
 				color = Math.floorMod((int) Math.floor(colorDouble), 4096);
 				red = color >> 8;
 				grn = color >> 4 & 15;
 				blu = color & 15;
-				img.setRGB(x, y, ((red << 8 | grn) << 8 | blu) << 4);
+				canvas.set(x, y, ((red << 8 | grn) << 8 | blu) << 4);
 				break;
 			case 4: // 18BPP
 				color = Math.floorMod((int) Math.floor(colorDouble), 262144);
 				red = color >> 12;
 				grn = color >> 6 & 63;
 				blu = color & 63;
-				img.setRGB(x, y, ((red << 8 | grn) << 8 | blu) << 2);
+				canvas.set(x, y, ((red << 8 | grn) << 8 | blu) << 2);
 				break;
 			case 5: // 24BPP
 				color = Math.floorMod((int) Math.floor(colorDouble), 16777216);
-				img.setRGB(x, y, color);
+				canvas.set(x, y, color);
 				break;
 		}
+
+		// Keep the component labels up to date. This also invalidates the affected nodes of the decoded program.
+		int newColor = getRawPixel(x, y);
+		if (newColor != oldColor) {
+			boolean codeChanged = graph != null && graph.decoded(x, y);
+
+			int merge = (getRawPixel(x, y - 1) == newColor ? 1 : 0) |
+			            (getRawPixel(x - 1, y) == newColor ? 2 : 0) |
+			            (getRawPixel(x + 1, y) == newColor ? 4 : 0) |
+			            (getRawPixel(x, y + 1) == newColor ? 8 : 0);
+			if (!labels.recolor(x, y, merge)) {
+				labels = new ComponentLabels(canvas.pixels(), width, height, canvas.rowBits);
+				programLabels = false;
+				if (graph != null)
+					graph = new ProgramGraph(width, height, canvas.rowBits);
+				codeChanged = true;
+			}
+
+			// Traces through the changed instructions are stale.
+			if (codeChanged || labels.touchedCode())
+				codeVersion++;
+
+			floodComponent = -1;
+		}
 	}
 
 	@SuppressWarnings("SwitchStatementWithoutDefaultBranch")
@@ -635,11 +1505,11 @@ public class FloaterInterpreter {
 		int y = (int) Math.round(yd);
 
 		// Bounds check.
-		if (x < 0 || y < 0 || x >= img.getWidth() || y >= img.getHeight()) {
+		if (x < 0 || y < 0 || x >= width || y >= height) {
 			return 0;
 		}
 
-		int rgb = img.getRGB(x, y) & 0xFFFFFF;
+		int rgb = canvas.get(x, y);
 		int red;
 		int grn;
 		int blu;
@@ -673,16 +1543,36 @@ public class FloaterInterpreter {
 		return 0;
 	}
 
+	private InputBuffer inputBuffer() {
+		if (input == null)
+			input = new InputBuffer(io());
+
+		return input;
+	}
+
+	private boolean inputReady() {
+		try {
+			return inputBuffer().isReady();
+		} catch (IOException ignored) {
+			// Let INPUT find out.
+			return true;
+		}
+	}
+
 	@SuppressWarnings("SwitchStatementWithoutDefaultBranch")
-	private double input() {
+	double input() {
+		// Show the prompt before waiting for input.
+		if (output != null && inputBuffer().isEmpty())
+			output.event(FlushPolicy.INPUT);
+
 		try {
 			switch (ioMode) {
 				case 0: // Character
-					return System.in.read();
+					return inputBuffer().read();
 				case 2: // Float
-					break;
+					return inputBuffer().readNumber(true);
 				case 1: // Integer
-					break;
+					return inputBuffer().readNumber(false);
 			}
 		} catch (IOException ignored) {
 		}
@@ -690,18 +1580,17 @@ public class FloaterInterpreter {
 		return 0;
 	}
 
-	@SuppressWarnings({"SwitchStatementWithoutDefaultBranch", "UseOfSystemOutOrSystemErr"})
-	private void print(double value) {
+	@SuppressWarnings("SwitchStatementWithoutDefaultBranch")
+	void print(double value) {
 		switch (ioMode) {
 			case 0: // Character
-				System.out.write((int) Math.round(value));
-				System.out.flush();
+				outputBuffer().write((int) Math.round(value));
 				break;
 			case 2: // Float
-				System.out.print(Double.toString(value));
+				outputBuffer().print(value);
 				break;
 			case 1: // Integer
-				System.out.print(toLong(value));
+				outputBuffer().print(toLong(value));
 				break;
 		}
 	}
@@ -19,6 +19,10 @@ package org.zomb.floater;
 
 import javax.imageio.ImageIO;
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author Zom-B
@@ -30,15 +34,79 @@ import java.io.*;
 public enum FloaterMain {
 	;
 
+	// Instructions between checks whether a snapshot is due, and the time between snapshots.
+	private static final long CHECKPOINT_STEPS = 1 << 20;
+	private static final long CHECKPOINT_INTERVAL = TimeUnit.MINUTES.toNanos(1);
+
 	public static void main(String... args) throws IOException {
-		if (args.length == 0)
+		Long seed = null;
+		File batchDir = null;
+		File sweepDir = null;
+		int seedCount = 0;
+		long maxSteps = Long.MAX_VALUE;
+		File checkpointFile = null;
+		File resumeFile = null;
+		File framesFile = null;
+
+		int arg = 0;
+		while (arg < args.length && args[arg].startsWith("--")) {
+			if (args[arg].equals("--seed") && arg + 1 < args.length && args[arg + 1].matches("-?\\d+")) {
+				seed = Long.parseLong(args[arg + 1]);
+				arg += 2;
+			} else if (args[arg].equals("--batch") && arg + 1 < args.length) {
+				batchDir = new File(args[arg + 1]);
+				arg += 2;
+			} else if (args[arg].equals("--sweep") && arg + 1 < args.length) {
+				sweepDir = new File(args[arg + 1]);
+				arg += 2;
+			} else if (args[arg].equals("--seeds") && arg + 1 < args.length && args[arg + 1].matches("[1-9]\\d{0,8}")) {
+				seedCount = Integer.parseInt(args[arg + 1]);
+				arg += 2;
+			} else if (args[arg].equals("--checkpoint") && arg + 1 < args.length) {
+				checkpointFile = new File(args[arg + 1]);
+				arg += 2;
+			} else if (args[arg].equals("--resume") && arg + 1 < args.length) {
+				resumeFile = new File(args[arg + 1]);
+				arg += 2;
+			} else if (args[arg].equals("--frames") && arg + 1 < args.length) {
+				framesFile = new File(args[arg + 1]);
+				arg += 2;
+			} else if (args[arg].equals("--max-steps") && arg + 1 < args.length && args[arg + 1].matches("\\d+")) {
+				maxSteps = Long.parseLong(args[arg + 1]);
+				arg += 2;
+			} else {
+				showCommandLineSyntax();
+			}
+		}
+
+		if (batchDir != null) {
+			if (args.length > arg + 1)
+				showCommandLineSyntax();
+
+			File resultsDir = arg < args.length ? new File(args[arg]) : new File(batchDir, "results");
+			BatchRunner.runAll(batchDir, resultsDir, seed, maxSteps);
+			return;
+		}
+
+		if (arg == args.length)
 			showCommandLineSyntax();
 
-		File inFile = new File(args[0]);
+		File inFile = new File(args[arg]);
+
+		if (sweepDir != null || seedCount > 0) {
+			if (args.length > arg + 1)
+				showCommandLineSyntax();
+
+			if (seedCount > 0 && seed == null)
+				seed = 0L;
+			FloaterProgram program = new FloaterProgram(ImageIO.read(inFile));
+			SweepRunner.runAll(program, sweepDir, seed, Math.max(seedCount, 1), maxSteps, System.out);
+			return;
+		}
 
 		File outFile = null;
-		if (args.length > 1) {
-			outFile = new File(args[1]);
+		if (args.length > arg + 1) {
+			outFile = new File(args[arg + 1]);
 			if (inFile.equals(outFile)) {
 				System.out.println("Both files cannot be te same.");
 				System.exit(-2);
@@ -46,13 +114,28 @@ public enum FloaterMain {
 		}
 
 		FloaterInterpreter vm = new FloaterInterpreter();
-		vm.setImage(ImageIO.read(inFile));
+		vm.setCompiled(true);
+		if (seed != null)
+			vm.setSeed(seed);
 
-		simulate(vm);
+		if (checkpointFile != null || resumeFile != null) {
+			// Snapshots of a shared program only contain the changed parts of the image.
+			vm.setProgram(new FloaterProgram(ImageIO.read(inFile)));
+			if (resumeFile != null) {
+				try (InputStream in = new BufferedInputStream(new FileInputStream(resumeFile))) {
+					vm.loadState(in);
+				}
+			}
+		} else {
+			vm.setImage(ImageIO.read(inFile));
+		}
+
+		if (!simulate(vm, maxSteps, checkpointFile, framesFile != null ? new FrameWriter(framesFile) : null))
+			return;
 
 		if (outFile != null) {
 			try (OutputStream out = new BufferedOutputStream(new FileOutputStream(outFile))) {
-				ImageIO.write(vm.img, "png", out);
+				ImageIO.write(vm.getImage(), "png", out);
 			}
 		}
 	}
@@ -68,16 +151,114 @@ public enum FloaterMain {
 		System.out.println("java -jar floater.jar <program>.png <output>.png");
 		System.out.println("  Saves changes to the program memory");
 		System.out.println();
+		System.out.println("Options, before the program:");
+		System.out.println("--seed <number>");
+		System.out.println("  Makes RND return the same numbers in every run");
+		System.out.println("--max-steps <number>");
+		System.out.println("  Stops the program after this many instructions");
+		System.out.println("--checkpoint <file>");
+		System.out.println("  Saves the state of the program to the file every minute, and when aborted");
+		System.out.println("--resume <file>");
+		System.out.println("  Continues the program from a state saved with --checkpoint");
+		System.out.println("--frames <file>.png");
+		System.out.println("  Saves the image at the start, at every PAUSE and at the end as an animated PNG");
+		System.out.println("--batch <directory> [<results directory>]");
+		System.out.println("  Runs all programs in the directory at once, without input, and writes their");
+		System.out.println("  output, images and timing to the results directory (default <directory>/results)");
+		System.out.println("--sweep <directory>");
+		System.out.println("  Runs the program at once with every file in the directory as input, and prints");
+		System.out.println("  the outputs in order. Doesn't save changes to the program memory");
+		System.out.println("--seeds <count>");
+		System.out.println("  Runs the program at once with this many seeds, counting from --seed (default 0)");
+		System.out.println();
 		System.out.println("If the program doesn't terminate, abort with CTRL+C.");
-		System.out.println("No output image will be saved when aborted.");
+		System.out.println("No output image will be saved when aborted, use --checkpoint to be able to resume.");
 		System.exit(-1);
 	}
 
-	private static void simulate(FloaterInterpreter vm) {
-		while (vm.runState < 2) {
-			vm.execute();
-			vm.fetch();
+	// Returns false when the program didn't halt within the number of steps.
+	static boolean simulate(FloaterInterpreter vm, long maxSteps) {
+		// PAUSE doesn't do anything without the designer.
+		StopReason reason;
+		do {
+			reason = vm.run(maxSteps - vm.getSteps());
+		} while (reason == StopReason.PAUSED);
+
+		vm.flushOutput();
+		return reason == StopReason.HALTED;
+	}
+
+	// Writes out the output when the JVM is shut down by CTRL+C, and returns false in that case, after which the program
+	// should not do anything else. Saves a snapshot every CHECKPOINT_INTERVAL and when aborted, when checkpointFile is
+	// not null. Adds a frame at every PAUSE when frames is not null, and closes it at the end, also when aborted.
+	static boolean simulate(FloaterInterpreter vm, long maxSteps, File checkpointFile, FrameWriter frames)
+			throws IOException {
+		// The output can only be written and the snapshot taken between instructions, so the shutdown hook asks for them
+		// and waits for them.
+		CountDownLatch abort = new CountDownLatch(1);
+		CountDownLatch saved = new CountDownLatch(1);
+		Thread hook = new Thread(() -> {
+			abort.countDown();
+			try {
+				// Don't wait forever when INPUT is waiting for input.
+				saved.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException ignored) {
+			}
+		});
+		Runtime.getRuntime().addShutdownHook(hook);
+
+		try {
+			if (frames != null)
+				frames.add(vm);
+
+			long lastSave = System.nanoTime();
+			while (true) {
+				StopReason reason = vm.run(Math.min(CHECKPOINT_STEPS, maxSteps - vm.getSteps()));
+				if (reason == StopReason.HALTED)
+					break;
+				if (reason == StopReason.BUDGET && vm.getSteps() >= maxSteps)
+					break;
+
+				if (reason == StopReason.PAUSED && frames != null)
+					frames.add(vm);
+
+				if (abort.getCount() == 0) {
+					vm.flushOutput();
+					if (checkpointFile != null)
+						saveCheckpoint(vm, checkpointFile);
+					if (frames != null) {
+						frames.add(vm);
+						frames.close();
+					}
+					return false;
+				}
+
+				if (checkpointFile != null && System.nanoTime() - lastSave >= CHECKPOINT_INTERVAL) {
+					saveCheckpoint(vm, checkpointFile);
+					lastSave = System.nanoTime();
+				}
+			}
+		} finally {
+			saved.countDown();
+		}
+
+		vm.flushOutput();
+		if (frames != null) {
+			frames.add(vm);
+			frames.close();
+		}
+		Runtime.getRuntime().removeShutdownHook(hook);
+		return true;
+	}
+
+	// Never leaves a half written snapshot behind.
+	private static void saveCheckpoint(FloaterInterpreter vm, File checkpointFile) throws IOException {
+		File tempFile = new File(checkpointFile.getPath() + ".tmp");
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tempFile))) {
+			vm.saveState(out);
 		}
+		Files.move(tempFile.toPath(), checkpointFile.toPath(),
+		           StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
 	}
 
 }
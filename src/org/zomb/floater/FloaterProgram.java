@@ -0,0 +1,81 @@
+/*
+ * This file is part of Floater.
+ *
+ * Floater is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Floater is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Floater.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.zomb.floater;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * A program image that any number of interpreters can run at the same time, from any thread (see
+ * {@link FloaterInterpreter#setProgram}). The program itself never changes. Every interpreter copies the parts of the
+ * image it writes to, in tiles, so its memory grows with the pixels it changes instead of with the size of the image.
+ * The same goes for the areas of equal color, and for the path through the program, which are found once. Traces are
+ * recorded by every interpreter, but compiled once for all of them.
+ *
+ * @author Zom-B
+ * @version 1.2
+ * @since 1.2
+ */
+// Created 2026-10-18
+public final class FloaterProgram {
+	final int width;
+	final int height;
+
+	private final int[] rgb;
+
+	// Labeled and decoded once. Every interpreter shares them, and only copies the pages it changes.
+	private final ComponentLabels labels;
+	private final ProgramGraph graph;
+
+	// Traces with the same operations share their compiled code, also between interpreters.
+	final TraceCompiler compiler = new TraceCompiler();
+
+	public FloaterProgram(BufferedImage img) {
+		width = img.getWidth();
+		height = img.getHeight();
+
+		// The unused top byte might contain anything.
+		rgb = ((DataBufferInt) FloaterInterpreter.toIntRgb(img).getRaster().getDataBuffer()).getData().clone();
+		for (int i = 0; i < rgb.length; i++)
+			rgb[i] &= 0xFFFFFF;
+
+		labels = new ComponentLabels(rgb, width, height, Canvas.rowBits(width));
+		graph = FloaterInterpreter.decodePath(newCanvas(), labels);
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	Canvas newCanvas() {
+		return new Canvas(rgb, width, height, true);
+	}
+
+	ComponentLabels newLabels() {
+		return labels.copy();
+	}
+
+	// Only fits a copy of the labels.
+	ProgramGraph newGraph() {
+		return graph.copy();
+	}
+}
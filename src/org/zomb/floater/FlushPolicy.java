@@ -0,0 +1,41 @@
+/*
+ * This file is part of Floater.
+ *
+ * Floater is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Floater is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Floater.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.zomb.floater;
+
+/**
+ * When the output of PRINT is written out (see {@link FloaterInterpreter#setFlushPolicy}). Every policy also flushes at
+ * the events of the policies after it, and the output is always written out when the program halts or the buffer is
+ * full.
+ *
+ * @author Zom-B
+ * @version 1.2
+ * @since 1.2
+ */
+// Created 2026-10-18
+public enum FlushPolicy {
+	// After every PRINT.
+	CHARACTER,
+	// After printing a newline.
+	NEWLINE,
+	// Before INPUT reads, so prompts are visible.
+	INPUT,
+	// When PAUSE is executed.
+	PAUSE,
+	// Only when the program halts.
+	HALT
+}
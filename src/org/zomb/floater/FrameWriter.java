@@ -0,0 +1,347 @@
+/*
+ * This file is part of Floater.
+ *
+ * Floater is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Floater is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Floater.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.zomb.floater;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Records the image of a running program as an animated PNG, one frame at a time. Every frame after the first only
+ * contains the rectangle that changed since the previous one. The program only waits for the tiles SET PIXEL wrote to
+ * to be copied (see {@link FloaterInterpreter#getDirtyTiles()}), which it clears. They are compared and compressed on a
+ * thread of their own.
+ * <p>
+ * The size of the animation is only known at the end, as SET PIXEL can make the image bigger, so the frames are
+ * collected in a temporary file and put behind the header when the writer is closed.
+ *
+ * @author Zom-B
+ * @version 1.2
+ * @since 1.2
+ */
+// Created 2026-10-18
+final class FrameWriter implements Closeable {
+	private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+	// Every frame is shown for 1/25 s.
+	private static final int DELAY_NUMERATOR = 1;
+	private static final int DELAY_DENOMINATOR = 25;
+
+	// Frames that may wait for the writer thread before the program has to.
+	private static final int QUEUE_SIZE = 8;
+
+	private final File file;
+	private final File tempFile;
+	private final DataOutputStream temp;
+
+	private final BlockingQueue<Frame> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+	private final Thread thread;
+	private volatile IOException error;
+
+	// Only used by the program.
+	private boolean started;
+
+	// Only used by the writer thread, until it is finished. The image as of the last frame, and as of the first frame.
+	private int[] image = new int[0];
+	private int width;
+	private int height;
+	private int[] first;
+	private int firstWidth;
+	private int firstHeight;
+	private int frameCount;
+	private final Deflater deflater = new Deflater();
+	private final CRC32 crc = new CRC32();
+	private byte[] scanlines = new byte[0];
+	private byte[] compressed = new byte[1 << 16];
+
+	// The tiles that changed since the previous frame.
+	private static final class Frame {
+		final int width;
+		final int height;
+		final int tilesX;
+		final int[] indices;
+		final int[][] tiles;
+
+		Frame(int width, int height, int count) {
+			this.width = width;
+			this.height = height;
+			tilesX = (width + FloaterInterpreter.TILE_SIZE - 1) / FloaterInterpreter.TILE_SIZE;
+			indices = new int[count];
+			tiles = new int[count][];
+		}
+	}
+
+	// Marks the end of the frames.
+	private static final Frame END = new Frame(0, 0, 0);
+
+	FrameWriter(File file) throws IOException {
+		this.file = file;
+		tempFile = File.createTempFile("frames", ".tmp", file.getAbsoluteFile().getParentFile());
+		temp = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 1 << 16));
+
+		thread = new Thread(this::writeFrames, "FrameWriter");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Adds the current image of the program as the next frame, and clears its dirty tiles. Only waits when the writer
+	 * thread is behind.
+	 */
+	void add(FloaterInterpreter vm) throws IOException {
+		if (error != null)
+			throw error;
+
+		// The first frame is the whole image.
+		BitSet dirty = vm.getDirtyTiles();
+		if (!started) {
+			int tileSize = FloaterInterpreter.TILE_SIZE;
+			dirty.set(0, ((vm.width + tileSize - 1) / tileSize) * ((vm.height + tileSize - 1) / tileSize));
+			started = true;
+		}
+
+		Frame frame = new Frame(vm.width, vm.height, dirty.cardinality());
+		int i = 0;
+		for (int index = dirty.nextSetBit(0); index >= 0; index = dirty.nextSetBit(index + 1)) {
+			frame.indices[i] = index;
+			frame.tiles[i] = new int[FloaterInterpreter.TILE_SIZE * FloaterInterpreter.TILE_SIZE];
+			vm.readTile(index, frame.tiles[i]);
+			i++;
+		}
+		dirty.clear();
+
+		try {
+			queue.put(frame);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+	}
+
+	/**
+	 * Waits for all frames to be written, and writes the animation.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			queue.put(END);
+			thread.join();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+
+		try {
+			temp.close();
+			if (error != null)
+				throw error;
+			if (first == null)
+				return;
+
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+				out.write(SIGNATURE);
+
+				ByteArrayOutputStream chunk = new ByteArrayOutputStream(32);
+				DataOutputStream data = new DataOutputStream(chunk);
+				data.writeInt(width);
+				data.writeInt(height);
+				data.writeByte(8); // Bits per sample
+				data.writeByte(2); // RGB
+				data.writeByte(0); // Deflate
+				data.writeByte(0); // Adaptive filters
+				data.writeByte(0); // No interlace
+				writeChunk(out, "IHDR", chunk.toByteArray(), chunk.size());
+
+				chunk.reset();
+				data.writeInt(frameCount);
+				data.writeInt(0); // Repeat forever
+				writeChunk(out, "acTL", chunk.toByteArray(), chunk.size());
+
+				// The first frame is the image itself.
+				chunk.reset();
+				writeFrameControl(data, 0, 0, 0, width, height);
+				writeChunk(out, "fcTL", chunk.toByteArray(), chunk.size());
+				int length = compress(first, firstWidth, firstHeight, 0, 0, width, height);
+				writeChunk(out, "IDAT", compressed, length);
+				out.flush();
+
+				// The other frames are already complete chunks.
+				try (FileChannel frames = FileChannel.open(tempFile.toPath(), StandardOpenOption.READ)) {
+					frames.transferTo(0, frames.size(), Channels.newChannel(out));
+				}
+
+				writeChunk(out, "IEND", new byte[0], 0);
+			}
+		} finally {
+			deflater.end();
+			Files.deleteIfExists(tempFile.toPath());
+		}
+	}
+
+	private void writeFrames() {
+		try {
+			while (true) {
+				Frame frame = queue.take();
+				if (frame == END)
+					break;
+
+				apply(frame);
+				frameCount++;
+			}
+		} catch (IOException ex) {
+			error = ex;
+			// Keep taking frames until the end, so nobody waits for the queue.
+			try {
+				while (queue.take() != END) {
+				}
+			} catch (InterruptedException ignored) {
+			}
+		} catch (InterruptedException ignored) {
+		}
+	}
+
+	private void apply(Frame frame) throws IOException {
+		// SET PIXEL only makes the image bigger, and the new pixels are black.
+		if (frame.width > width || frame.height > height) {
+			int[] bigger = new int[frame.width * frame.height];
+			for (int y = 0; y < height; y++)
+				System.arraycopy(image, y * width, bigger, y * frame.width, width);
+			image = bigger;
+			width = frame.width;
+			height = frame.height;
+		}
+
+		// The rectangle that changed.
+		int x0 = Integer.MAX_VALUE;
+		int y0 = Integer.MAX_VALUE;
+		int x1 = -1;
+		int y1 = -1;
+		for (int i = 0; i < frame.indices.length; i++) {
+			int[] tile = frame.tiles[i];
+			int tileX = frame.indices[i] % frame.tilesX * FloaterInterpreter.TILE_SIZE;
+			int tileY = frame.indices[i] / frame.tilesX * FloaterInterpreter.TILE_SIZE;
+			int w = Math.min(FloaterInterpreter.TILE_SIZE, width - tileX);
+			int h = Math.min(FloaterInterpreter.TILE_SIZE, height - tileY);
+			for (int y = 0; y < h; y++) {
+				for (int x = 0; x < w; x++) {
+					int rgb = tile[y * FloaterInterpreter.TILE_SIZE + x];
+					int index = (tileY + y) * width + tileX + x;
+					if (image[index] != rgb) {
+						image[index] = rgb;
+						x0 = Math.min(x0, tileX + x);
+						x1 = Math.max(x1, tileX + x);
+						y0 = Math.min(y0, tileY + y);
+						y1 = Math.max(y1, tileY + y);
+					}
+				}
+			}
+		}
+
+		if (frameCount == 0) {
+			first = image.clone();
+			firstWidth = width;
+			firstHeight = height;
+			return;
+		}
+
+		// Nothing changed, but the frame still takes its time.
+		if (x1 < 0) {
+			x0 = 0;
+			y0 = 0;
+			x1 = 0;
+			y1 = 0;
+		}
+
+		// Frame 0 takes sequence number 0, its image data doesn't have one.
+		int sequence = frameCount * 2 - 1;
+		ByteArrayOutputStream chunk = new ByteArrayOutputStream(32);
+		DataOutputStream data = new DataOutputStream(chunk);
+		writeFrameControl(data, sequence, x0, y0, x1 - x0 + 1, y1 - y0 + 1);
+		writeChunk(temp, "fcTL", chunk.toByteArray(), chunk.size());
+
+		int length = compress(image, width, height, x0, y0, x1 - x0 + 1, y1 - y0 + 1);
+		chunk.reset();
+		data.writeInt(sequence + 1);
+		data.write(compressed, 0, length);
+		writeChunk(temp, "fdAT", chunk.toByteArray(), chunk.size());
+	}
+
+	private static void writeFrameControl(DataOutputStream data, int sequence, int x, int y, int w, int h)
+			throws IOException {
+		data.writeInt(sequence);
+		data.writeInt(w);
+		data.writeInt(h);
+		data.writeInt(x);
+		data.writeInt(y);
+		data.writeShort(DELAY_NUMERATOR);
+		data.writeShort(DELAY_DENOMINATOR);
+		data.writeByte(0); // Leave the frame as it is
+		data.writeByte(0); // Replace the pixels
+	}
+
+	// Compresses the rectangle of an image into compressed[], and returns the length. Pixels outside the image are
+	// black, like the pixels SET PIXEL adds when it makes the image bigger.
+	private int compress(int[] pixels, int pixelsWidth, int pixelsHeight, int x0, int y0, int w, int h) {
+		int stride = w * 3 + 1;
+		if (scanlines.length < stride * h)
+			scanlines = new byte[stride * h];
+
+		int i = 0;
+		for (int y = y0; y < y0 + h; y++) {
+			scanlines[i++] = 0; // No filter
+			for (int x = x0; x < x0 + w; x++) {
+				int rgb = x < pixelsWidth && y < pixelsHeight ? pixels[y * pixelsWidth + x] : 0;
+				scanlines[i++] = (byte) (rgb >> 16);
+				scanlines[i++] = (byte) (rgb >> 8);
+				scanlines[i++] = (byte) rgb;
+			}
+		}
+
+		deflater.reset();
+		deflater.setInput(scanlines, 0, i);
+		deflater.finish();
+		int length = 0;
+		while (!deflater.finished()) {
+			if (length == compressed.length)
+				compressed = Arrays.copyOf(compressed, length * 2);
+			length += deflater.deflate(compressed, length, compressed.length - length);
+		}
+		return length;
+	}
+
+	private void writeChunk(DataOutputStream out, String type, byte[] data, int length) throws IOException {
+		byte[] typeBytes = type.getBytes("US-ASCII");
+		out.writeInt(length);
+		out.write(typeBytes);
+		out.write(data, 0, length);
+
+		crc.reset();
+		crc.update(typeBytes);
+		crc.update(data, 0, length);
+		out.writeInt((int) crc.getValue());
+	}
+}
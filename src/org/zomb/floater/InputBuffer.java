@@ -0,0 +1,192 @@
+/*
+ * This file is part of Floater.
+ *
+ * Floater is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Floater is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Floater.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.zomb.floater;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the input of INPUT in large blocks. The interpreter can see when the next INPUT will have to wait for more
+ * input, which is when the output has to be flushed so prompts are visible.
+ *
+ * @author Zom-B
+ * @version 1.2
+ * @since 1.2
+ */
+// Created 2026-10-18
+final class InputBuffer {
+	// Powers of ten that are exact doubles.
+	private static final double[] POWERS_OF_TEN = {
+			1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+	// Digits beyond this are not added to the mantissa any more, so it can't overflow.
+	private static final long MANTISSA_LIMIT = 100000000000000000L;
+
+	private final byte[] buffer = new byte[1 << 16];
+	private final ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+	private int position;
+	private int limit;
+	// Whether a read found the end of the input.
+	private boolean ended;
+
+	private final FloaterIO io;
+
+	// The number being read, for the rare numbers that have to be parsed by Double.parseDouble.
+	private final StringBuilder text = new StringBuilder(32);
+
+	InputBuffer(FloaterIO io) {
+		this.io = io;
+	}
+
+	// Whether everything read so far has been used, so the next read might wait.
+	boolean isEmpty() {
+		return position == limit;
+	}
+
+	// Whether the next read won't wait, also when it's because the input is at its end.
+	boolean isReady() throws IOException {
+		return position < limit || ended || io.available() != 0;
+	}
+
+	// Returns the next byte, or -1 at the end of the input.
+	int read() throws IOException {
+		if (position == limit && !fill())
+			return -1;
+
+		return buffer[position++] & 0xFF;
+	}
+
+	// Returns the next byte without reading it, or -1 at the end of the input.
+	private int peek() throws IOException {
+		if (position == limit && !fill())
+			return -1;
+
+		return buffer[position] & 0xFF;
+	}
+
+	private boolean fill() throws IOException {
+		wrapped.clear();
+		int n = io.read(wrapped);
+		if (n <= 0) {
+			ended = n < 0;
+			return false;
+		}
+
+		position = 0;
+		limit = n;
+		return true;
+	}
+
+	/**
+	 * Reads a decimal number, skipping everything before it that can't start one. Integers end at the first byte that
+	 * is not a digit, other numbers may have a fraction and an exponent. The byte after the number is left for the next
+	 * read. Returns -1 at the end of the input, like {@link #read()}, and 0 when there's only a sign or a point.
+	 */
+	double readNumber(boolean fraction) throws IOException {
+		int c = peek();
+		while (c >= 0 && !isDigit(c) && c != '-' && c != '+' && !(fraction && c == '.')) {
+			position++;
+			c = peek();
+		}
+		if (c < 0)
+			return -1;
+
+		text.setLength(0);
+		boolean negative = c == '-';
+		if (c == '-' || c == '+')
+			c = next(c);
+
+		// The number is mantissa * 10^exponent, as long as it is exact.
+		long mantissa = 0;
+		int exponent = 0;
+		boolean exact = true;
+		boolean digits = false;
+		while (isDigit(c)) {
+			digits = true;
+			if (mantissa < MANTISSA_LIMIT)
+				mantissa = mantissa * 10 + c - '0';
+			else {
+				exponent++;
+				exact &= c == '0';
+			}
+			c = next(c);
+		}
+
+		if (fraction && c == '.') {
+			c = next(c);
+			while (isDigit(c)) {
+				digits = true;
+				if (mantissa < MANTISSA_LIMIT) {
+					mantissa = mantissa * 10 + c - '0';
+					exponent--;
+				} else {
+					exact &= c == '0';
+				}
+				c = next(c);
+			}
+		}
+
+		if (!digits)
+			return 0;
+
+		if (fraction && (c == 'e' || c == 'E')) {
+			c = next(c);
+			boolean negativeExponent = c == '-';
+			if (c == '-' || c == '+')
+				c = next(c);
+
+			int e = 0;
+			while (isDigit(c)) {
+				// Further digits only make it overflow to zero or infinity.
+				if (e < 100000)
+					e = e * 10 + c - '0';
+				c = next(c);
+			}
+			exponent += negativeExponent ? -e : e;
+		}
+
+		double value;
+		if (exact && exponent == 0) {
+			value = mantissa;
+		} else if (exact && mantissa < 1L << 53 && exponent > -POWERS_OF_TEN.length &&
+		           exponent < POWERS_OF_TEN.length) {
+			// Both operands are exact, so the result is rounded only once, like Double.parseDouble rounds it.
+			value = exponent > 0 ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+		} else {
+			// An 'e' without digits, which was read anyway, isn't valid there.
+			int end = text.length();
+			while (!isDigit(text.charAt(end - 1)))
+				end--;
+			text.setLength(end);
+			value = Math.abs(Double.parseDouble(text.toString()));
+		}
+
+		return negative ? -value : value;
+	}
+
+	// Reads the peeked byte, and peeks at the next one.
+	private int next(int c) throws IOException {
+		text.append((char) c);
+		position++;
+		return peek();
+	}
+
+	private static boolean isDigit(int c) {
+		return c >= '0' && c <= '9';
+	}
+}
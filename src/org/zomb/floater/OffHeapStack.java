@@ -0,0 +1,83 @@
+/*
+ * This file is part of Floater.
+ *
+ * Floater is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Floater is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Floater.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.zomb.floater;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+
+/**
+ * Stack memory outside the Java heap, for programs that push millions of values. The memory is allocated in chunks, so
+ * growing never copies the values, and chunks are released again when the stack shrinks.
+ *
+ * @author Zom-B
+ * @version 1.2
+ * @since 1.2
+ */
+// Created 2026-10-18
+final class OffHeapStack {
+	// Values per chunk.
+	private static final int CHUNK_BITS = 16;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	private DoubleBuffer[] chunks = new DoubleBuffer[16];
+	private int allocated;
+
+	double get(int index) {
+		return chunks[index >> CHUNK_BITS].get(index & CHUNK_MASK);
+	}
+
+	void set(int index, double value) {
+		int chunk = index >> CHUNK_BITS;
+		if (chunk >= allocated)
+			allocate(chunk);
+
+		chunks[chunk].put(index & CHUNK_MASK, value);
+	}
+
+	/**
+	 * Reads the value that just became the top of the stack. Leaving a chunk releases the chunks above the next one, so
+	 * a stack that moves back and forth around a chunk boundary doesn't allocate all the time.
+	 */
+	double pop(int index) {
+		int chunk = index >> CHUNK_BITS;
+		if ((index & CHUNK_MASK) == CHUNK_MASK && chunk + 2 < allocated)
+			release(chunk + 2);
+
+		return chunks[chunk].get(index & CHUNK_MASK);
+	}
+
+	private void allocate(int chunk) {
+		if (chunk >= chunks.length)
+			chunks = Arrays.copyOf(chunks, Math.max(chunks.length * 2, chunk + 1));
+
+		while (allocated <= chunk) {
+			chunks[allocated] = ByteBuffer.allocateDirect(CHUNK_SIZE * Double.BYTES)
+			                              .order(ByteOrder.nativeOrder()).asDoubleBuffer();
+			allocated++;
+		}
+	}
+
+	// Drops the chunks from the given one on. Their memory is freed when the buffers are garbage collected.
+	private void release(int chunk) {
+		Arrays.fill(chunks, chunk, allocated, null);
+		allocated = chunk;
+	}
+}
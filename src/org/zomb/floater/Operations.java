@@ -0,0 +1,98 @@
+/*
+ * This file is part of Floater.
+ *
+ * Floater is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Floater is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Floater.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.zomb.floater;
+
+/**
+ * Dense numbering of all instructions, so the interpreter can dispatch on one small number instead of opcode and param.
+ * The order is the order of {@link FloaterConstants#INSTRUCTIONS}. Instructions with a param that doesn't exist don't do
+ * anything, and are numbered as NOP.
+ *
+ * @author Zom-B
+ * @version 1.2
+ * @since 1.2
+ */
+// Created 2026-10-18
+enum Operations {
+	;
+
+	static final int NOP = 0;
+	static final int PUSH = 1;
+	static final int DUP = 2;
+	static final int SWAP = 3;
+	static final int GET = 4;
+	static final int SET = 5;
+	static final int PAUSE = 6;
+	static final int NOT = 7;
+	static final int AND = 8;
+	static final int OR = 9;
+	static final int XOR = 10;
+	static final int EQ = 11;
+	static final int LT = 12;
+	static final int GT = 13;
+	static final int SIGN = 14;
+	static final int PRINT = 15;
+	static final int INPUT = 16;
+	static final int IO_MODE = 17;
+	static final int SET_PIXEL = 18;
+	static final int GET_PIXEL = 19;
+	static final int GFX_MODE = 20;
+	static final int RND = 21;
+	static final int PUSH_IP = 22;
+	static final int PUSH_SP = 23;
+	static final int ROUND = 24;
+	static final int FLOOR = 25;
+	static final int CEIL = 26;
+	static final int TRUNC = 27;
+	static final int ADD = 28;
+	static final int SUB = 29;
+	static final int MUL = 30;
+	static final int DIV = 31;
+	static final int SQRT = 32;
+	static final int POW = 33;
+	static final int EXP = 34;
+	static final int LOG = 35;
+	static final int LOG_BASE = 36;
+	static final int SIN = 37;
+	static final int COS = 38;
+	static final int TAN = 39;
+	static final int ATN = 40;
+	static final int ANG_BASE = 41;
+	static final int FORWARD = 42;
+	static final int DEFLECT = 43;
+
+	// The operation of param 1 of each opcode.
+	private static final int[] FIRST = {
+			NOP, PUSH, DUP, GET, PAUSE, NOT, EQ, PRINT, SET_PIXEL, RND, ROUND, ADD, SQRT, SIN, NOP, FORWARD};
+
+	static int of(int opcode, int param) {
+		switch (opcode) {
+			case 0x0: // NOP
+			case 0xE: // <reserved>
+				return NOP;
+			case 0x1: // PUSH, the param is the value
+				return PUSH;
+			case 0x4: // PAUSE, with any param
+				return PAUSE;
+		}
+
+		if (param < 1 || param > FloaterConstants.INSTRUCTIONS[opcode].length)
+			return NOP;
+
+		return FIRST[opcode] + param - 1;
+	}
+}
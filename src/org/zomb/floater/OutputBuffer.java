@@ -0,0 +1,148 @@
+/*
+ * This file is part of Floater.
+ *
+ * Floater is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Floater is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Floater.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.zomb.floater;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Collects the output of PRINT, and writes it out in large blocks according to a {@link FlushPolicy}.
+ *
+ * @author Zom-B
+ * @version 1.2
+ * @since 1.2
+ */
+// Created 2026-10-18
+final class OutputBuffer {
+	private final byte[] buffer = new byte[1 << 16];
+	private final ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+	private int length;
+
+	// Where numbers are formatted, from the end.
+	private final byte[] digits = new byte[20];
+
+	private final FloaterIO io;
+
+	private FlushPolicy policy = FlushPolicy.NEWLINE;
+	// Longest time output may stay in the buffer, checked by the interpreter while it runs, or 0.
+	private long interval;
+	private long lastFlush = System.nanoTime();
+
+	OutputBuffer(FloaterIO io) {
+		this.io = io;
+	}
+
+	void setPolicy(FlushPolicy policy, long intervalMillis) {
+		this.policy = policy;
+		interval = intervalMillis * 1000000;
+	}
+
+	void write(int b) {
+		if (length == buffer.length)
+			flush();
+
+		buffer[length++] = (byte) b;
+
+		if (b == '\n' && policy == FlushPolicy.NEWLINE)
+			flush();
+		else
+			printed();
+	}
+
+	// Writes the number like Long.toString does.
+	void print(long value) {
+		appendDigits(value);
+		printed();
+	}
+
+	// Writes the number like Double.toString does. Only numbers with a fraction or exponent are formatted by it.
+	void print(double value) {
+		if (value == (long) value && Math.abs(value) < 1.0e7) {
+			// Including -0.0.
+			if (value == 0 && Double.doubleToRawLongBits(value) < 0)
+				append('-');
+			appendDigits((long) value);
+			append('.');
+			append('0');
+		} else {
+			String s = Double.toString(value);
+			for (int i = 0; i < s.length(); i++)
+				append(s.charAt(i));
+		}
+
+		printed();
+	}
+
+	private void appendDigits(long value) {
+		// Negative numbers have one more digit, so positive numbers are made negative instead of the other way around.
+		boolean negative = value < 0;
+		if (!negative)
+			value = -value;
+
+		int i = digits.length;
+		do {
+			digits[--i] = (byte) ('0' - value % 10);
+			value /= 10;
+		} while (value != 0);
+
+		if (negative)
+			append('-');
+		for (; i < digits.length; i++)
+			append(digits[i]);
+	}
+
+	// For numbers, which are plain ASCII.
+	private void append(int c) {
+		if (length == buffer.length)
+			flush();
+
+		buffer[length++] = (byte) c;
+	}
+
+	private void printed() {
+		if (policy == FlushPolicy.CHARACTER)
+			flush();
+	}
+
+	// Flushes when there is output that has been waiting longer than the interval.
+	void expire() {
+		if (length > 0 && interval > 0 && System.nanoTime() - lastFlush >= interval)
+			flush();
+	}
+
+	// Flushes when the policy flushes at this event, or at more frequent ones.
+	void event(FlushPolicy event) {
+		if (policy.compareTo(event) <= 0)
+			flush();
+	}
+
+	// Like PrintStream, write errors are ignored.
+	void flush() {
+		lastFlush = System.nanoTime();
+		try {
+			if (length > 0) {
+				wrapped.clear().limit(length);
+				io.write(wrapped);
+			}
+			io.flush();
+		} catch (IOException ignored) {
+		}
+
+		length = 0;
+	}
+}
@@ -0,0 +1,141 @@
+/*
+ * This file is part of Floater.
+ *
+ * Floater is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Floater is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Floater.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.zomb.floater;
+
+import java.util.Arrays;
+
+/**
+ * An int array of the size of the image, or bigger, that is stored in pages. Pages are only allocated when they are
+ * written to, so arrays that are mostly zero stay small. A copy shares the pages of the original, and copies a page the
+ * first time it writes to it, so the original must not be written to anymore once it has been copied.
+ *
+ * @author Zom-B
+ * @version 1.2
+ * @since 1.2
+ */
+// Created 2026-10-18
+final class PagedInts {
+	// Pages are 4096 values, which is a tile of pixels (see Canvas.index()).
+	static final int PAGE_BITS = 12;
+	static final int PAGE_SIZE = 1 << PAGE_BITS;
+	static final int PAGE_MASK = PAGE_SIZE - 1;
+
+	// Null pages only contain zeros.
+	private int[][] pages;
+
+	// Pages that still belong to the original, or null when this isn't a copy.
+	private boolean[] shared;
+
+	PagedInts(int length) {
+		pages = new int[pages(length)][];
+	}
+
+	PagedInts(int[] values) {
+		this(values.length);
+
+		for (int index = 0; index < pages.length; index++) {
+			int start = index << PAGE_BITS;
+			int end = Math.min(start + PAGE_SIZE, values.length);
+			for (int i = start; i < end; i++) {
+				if (values[i] != 0) {
+					pages[index] = new int[PAGE_SIZE];
+					System.arraycopy(values, start, pages[index], 0, end - start);
+					break;
+				}
+			}
+		}
+	}
+
+	private PagedInts(PagedInts original) {
+		pages = original.pages.clone();
+		shared = new boolean[pages.length];
+		Arrays.fill(shared, true);
+	}
+
+	// The number of pages needed for the length.
+	static int pages(int length) {
+		return length + PAGE_MASK >> PAGE_BITS;
+	}
+
+	/**
+	 * Copies the array without copying the pages. Only reads this one, so several threads can copy the same array at once.
+	 */
+	PagedInts copy() {
+		return new PagedInts(this);
+	}
+
+	int get(int i) {
+		int[] page = pages[i >> PAGE_BITS];
+		return page != null ? page[i & PAGE_MASK] : 0;
+	}
+
+	void set(int i, int value) {
+		int index = i >> PAGE_BITS;
+		int[] page = pages[index];
+		if (page == null || shared != null && shared[index])
+			page = ownPage(index);
+
+		page[i & PAGE_MASK] = value;
+	}
+
+	/**
+	 * Makes the page with the value at index i the given page, which can be shared by several pages and arrays. It's
+	 * copied before it's written to.
+	 */
+	void share(int i, int[] page) {
+		int index = i >> PAGE_BITS;
+		if (shared == null)
+			shared = new boolean[pages.length];
+
+		pages[index] = page;
+		shared[index] = true;
+	}
+
+	// Whether all values of the page with the value at index i are zero, without looking at the values.
+	boolean isEmptyPage(int i) {
+		return pages[i >> PAGE_BITS] == null;
+	}
+
+	// Makes room for at least this many values.
+	void ensureLength(int length) {
+		int count = pages(length);
+		if (count <= pages.length)
+			return;
+
+		count = Math.max(count, pages.length * 2);
+		pages = Arrays.copyOf(pages, count);
+		if (shared != null)
+			shared = Arrays.copyOf(shared, count);
+	}
+
+	// Sets all values to zero.
+	void clear() {
+		Arrays.fill(pages, null);
+		shared = null;
+	}
+
+	private int[] ownPage(int index) {
+		int[] page = pages[index];
+		page = page != null ? page.clone() : new int[PAGE_SIZE];
+		pages[index] = page;
+		if (shared != null)
+			shared[index] = false;
+
+		return page;
+	}
+}
@@ -0,0 +1,215 @@
+/*
+ * This file is part of Floater.
+ *
+ * Floater is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Floater is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Floater.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.zomb.floater;
+
+/**
+ * Pre-decoded program graph. Every node is a codel entered from one of the four directions, and holds the decoded
+ * instruction and the node the instruction pointer moves to afterwards. Nodes are decoded lazily, the first time the
+ * instruction pointer enters them, and the graph only stores the pages of nodes that were decoded.
+ * <p>
+ * A decoded node also remembers the generation of the component its codel was part of (see {@link ComponentLabels}).
+ * The node is stale when that component changed shape since.
+ *
+ * @author Zom-B
+ * @version 1.2
+ * @since 1.2
+ */
+// Created 2026-10-18
+final class ProgramGraph {
+	// Flags in the code table.
+	static final int OPCODE_MASK = 0x0F;
+	static final int DIRECTION = 0x10;
+	static final int DECODED = 0x20;
+	static final int OUT_DIR_SHIFT = 6;
+	static final int OPERATION_SHIFT = 8;
+
+	// Marks a successor outside the image.
+	static final int EXIT = -1;
+
+	// Only change when the graph grows.
+	int width;
+	int height;
+	final int rowBits;
+
+	// Indexed by node: opcode, flags and operation, param, successor node and component generation. Only the pages
+	// with decoded nodes are stored.
+	final PagedInts code;
+	final PagedInts param;
+	final PagedInts next;
+	final PagedInts generation;
+
+	// Indexed by node: instructions without effect in a straight line from the node on, and the code version that was
+	// measured in. Zero when not measured yet.
+	final PagedInts corridor;
+	final PagedInts corridorVersion;
+
+	ProgramGraph(int width, int height, int rowBits) {
+		this.width = width;
+		this.height = height;
+		this.rowBits = rowBits;
+
+		int nodes = Canvas.indexLength(height, rowBits) << 2;
+		code = new PagedInts(nodes);
+		param = new PagedInts(nodes);
+		next = new PagedInts(nodes);
+		generation = new PagedInts(nodes);
+		corridor = new PagedInts(nodes);
+		corridorVersion = new PagedInts(nodes);
+	}
+
+	// Shares the pages of the graph until they are changed.
+	private ProgramGraph(ProgramGraph graph) {
+		width = graph.width;
+		height = graph.height;
+		rowBits = graph.rowBits;
+		code = graph.code.copy();
+		param = graph.param.copy();
+		next = graph.next.copy();
+		generation = graph.generation.copy();
+		corridor = graph.corridor.copy();
+		corridorVersion = graph.corridorVersion.copy();
+	}
+
+	/**
+	 * Copies the graph. The copy shares the nodes with this one until either changes them, so this one must not be
+	 * changed anymore. Only reads this one, so several threads can copy the same graph at once.
+	 */
+	ProgramGraph copy() {
+		return new ProgramGraph(this);
+	}
+
+	/**
+	 * Makes the graph bigger, for a canvas with the same rowBits, so the nodes stay where they are. Only successors that
+	 * used to leave the image are recalculated.
+	 */
+	void grow(int width, int height) {
+		int oldWidth = this.width;
+		int oldHeight = this.height;
+		this.width = width;
+		this.height = height;
+
+		int nodes = Canvas.indexLength(height, rowBits) << 2;
+		code.ensureLength(nodes);
+		param.ensureLength(nodes);
+		next.ensureLength(nodes);
+		generation.ensureLength(nodes);
+		corridor.ensureLength(nodes);
+		corridorVersion.ensureLength(nodes);
+
+		for (int y = 0; y < oldHeight; y++)
+			reconnect(oldWidth - 1, y);
+		for (int x = 0; x < oldWidth - 1; x++)
+			reconnect(x, oldHeight - 1);
+	}
+
+	private void reconnect(int x, int y) {
+		for (int dir = 0; dir < 4; dir++) {
+			int node = node(x, y, dir);
+			int code = this.code.get(node);
+			if (code != 0)
+				next.set(node, successor(x, y, code >> OUT_DIR_SHIFT & 3));
+		}
+	}
+
+	/**
+	 * Creates a bigger graph for a canvas with other rowBits, keeping all decoded nodes. Successors that used to leave
+	 * the image are recalculated.
+	 */
+	ProgramGraph resize(int width, int height, int rowBits) {
+		ProgramGraph graph = new ProgramGraph(width, height, rowBits);
+
+		for (int y = 0; y < this.height; y++) {
+			for (int x = 0; x < this.width; x++) {
+				int node = node(x, y, 0);
+				if (code.isEmptyPage(node))
+					continue;
+
+				for (int dir = 0; dir < 4; dir++) {
+					int code = this.code.get(node + dir);
+					if (code != 0)
+						graph.put(graph.node(x, y, dir), code, param.get(node + dir), generation.get(node + dir));
+				}
+			}
+		}
+
+		return graph;
+	}
+
+	int node(int x, int y, int dir) {
+		return Canvas.index(x, y, rowBits) << 2 | dir;
+	}
+
+	boolean contains(int x, int y) {
+		return x >= 0 && y >= 0 && x < width && y < height;
+	}
+
+	// The node after leaving codel (x, y) in direction outDir.
+	int successor(int x, int y, int outDir) {
+		x += FloaterConstants.DX[outDir];
+		y += FloaterConstants.DY[outDir];
+		return contains(x, y) ? node(x, y, outDir) : EXIT;
+	}
+
+	void put(int node, int opcode, int param, boolean direction, int outDir, int generation) {
+		put(node, opcode | (direction ? DIRECTION : 0) | DECODED | outDir << OUT_DIR_SHIFT |
+		          Operations.of(opcode, param) << OPERATION_SHIFT, param, generation);
+	}
+
+	private void put(int node, int code, int param, int generation) {
+		int x = Canvas.indexX(node >> 2, rowBits);
+		int y = Canvas.indexY(node >> 2, rowBits);
+
+		this.param.set(node, param);
+		next.set(node, successor(x, y, code >> OUT_DIR_SHIFT & 3));
+		this.generation.set(node, generation);
+		this.code.set(node, code);
+	}
+
+	/**
+	 * Measures the corridor from the node on (see FloaterInterpreter.skipCorridor), and those of the nodes in it, for code
+	 * version 0. Only the decoded part of the corridor is measured. Does nothing when the node isn't part of a corridor,
+	 * or when it was measured already.
+	 */
+	void measureCorridor(int node) {
+		int length = 0;
+		int end = node;
+		while (end != EXIT && inCorridor(end) && corridor.get(end) == 0) {
+			length++;
+			end = next.get(end);
+		}
+
+		int rest = end != EXIT && inCorridor(end) ? corridor.get(end) : 0;
+		for (int i = length; i > 0; i--) {
+			corridor.set(node, rest + i);
+			node = next.get(node);
+		}
+	}
+
+	// Whether the node is decoded to an instruction without effect.
+	private boolean inCorridor(int node) {
+		int code = this.code.get(node);
+		int operation = code >> OPERATION_SHIFT;
+		return code != 0 && (operation == Operations.NOP || operation == Operations.FORWARD);
+	}
+
+	// Whether the codel has been decoded from any direction.
+	boolean decoded(int x, int y) {
+		int node = node(x, y, 0);
+		return (code.get(node) | code.get(node + 1) | code.get(node + 2) | code.get(node + 3)) != 0;
+	}
+}
@@ -0,0 +1,39 @@
+/*
+ * This file is part of Floater.
+ *
+ * Floater is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Floater is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Floater.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.zomb.floater;
+
+/**
+ * Why {@link FloaterInterpreter#run(long)} returned.
+ *
+ * @author Zom-B
+ * @version 1.2
+ * @since 1.2
+ */
+// Created 2026-10-18
+public enum StopReason {
+	// The instruction pointer left the image.
+	HALTED,
+	// A PAUSE instruction was executed.
+	PAUSED,
+	// The maximum number of steps was executed.
+	BUDGET,
+	// The stop condition became true.
+	BREAKPOINT,
+	// The next instruction is INPUT, and no input is available yet.
+	IO_WAIT
+}
@@ -0,0 +1,95 @@
+/*
+ * This file is part of Floater.
+ *
+ * Floater is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Floater is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Floater.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.zomb.floater;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link FloaterIO} over an input and an output stream.
+ *
+ * @author Zom-B
+ * @version 1.2
+ * @since 1.2
+ */
+// Created 2026-10-18
+final class StreamIO implements FloaterIO {
+	// Either may be null.
+	private final InputStream input;
+	private final OutputStream output;
+
+	StreamIO(InputStream input, OutputStream output) {
+		this.input = input;
+		this.output = output;
+	}
+
+	@Override
+	public int read(ByteBuffer buffer) throws IOException {
+		if (input == null)
+			return -1;
+		if (!buffer.hasRemaining())
+			return 0;
+
+		// Streams only wait when nothing is available.
+		if (buffer.hasArray()) {
+			int n = input.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+			if (n > 0)
+				buffer.position(buffer.position() + n);
+			return n;
+		}
+
+		byte[] bytes = new byte[Math.min(buffer.remaining(), 8192)];
+		int n = input.read(bytes);
+		if (n > 0)
+			buffer.put(bytes, 0, n);
+		return n;
+	}
+
+	@Override
+	public int available() throws IOException {
+		if (input == null)
+			return -1;
+
+		// Only input from memory knows when it's at its end.
+		int available = input.available();
+		return available == 0 && input instanceof ByteArrayInputStream ? -1 : available;
+	}
+
+	@Override
+	public void write(ByteBuffer buffer) throws IOException {
+		if (output == null) {
+			buffer.position(buffer.limit());
+		} else if (buffer.hasArray()) {
+			output.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+			buffer.position(buffer.limit());
+		} else {
+			byte[] bytes = new byte[buffer.remaining()];
+			buffer.get(bytes);
+			output.write(bytes);
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		if (output != null)
+			output.flush();
+	}
+}
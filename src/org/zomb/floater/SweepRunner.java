@@ -0,0 +1,131 @@
+/*
+ * This file is part of Floater.
+ *
+ * Floater is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Floater is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Floater.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.zomb.floater;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Runs one program many times, once for every combination of an input and a seed, on all cores. The areas of equal
+ * color and the path through the program are found once and shared by all interpreters, and so is the code hot traces
+ * are compiled to. Every interpreter records its own traces, and only copies the parts of the program it changes. Every
+ * interpreter reads its input from memory, and the outputs are written in the order of the runs.
+ *
+ * @author Zom-B
+ * @version 1.2
+ * @since 1.2
+ */
+// Created 2026-10-18
+final class SweepRunner implements Runnable {
+	private final FloaterProgram program;
+	private final String inputName;
+	private final byte[] input;
+	private final Long seed;
+	private final long maxSteps;
+
+	private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+	private String result;
+
+	private SweepRunner(FloaterProgram program, String inputName, byte[] input, Long seed, long maxSteps) {
+		this.program = program;
+		this.inputName = inputName;
+		this.input = input;
+		this.seed = seed;
+		this.maxSteps = maxSteps;
+	}
+
+	/**
+	 * Runs the program with every file in the input directory as input, or with empty input when it is null. Every
+	 * input is run with {@code seedCount} seeds from {@code firstSeed} on, or once with a random seed when
+	 * {@code firstSeed} is null. Every output is written to {@code out} after a line that names its input and seed.
+	 */
+	static void runAll(FloaterProgram program, File inputDir, Long firstSeed, int seedCount, long maxSteps,
+	                   OutputStream out) throws IOException {
+		List<String> inputNames = new ArrayList<>();
+		List<byte[]> inputs = new ArrayList<>();
+		if (inputDir == null) {
+			inputNames.add("-");
+			inputs.add(new byte[0]);
+		} else {
+			File[] files = inputDir.listFiles(File::isFile);
+			if (files == null)
+				throw new FileNotFoundException(inputDir.getPath());
+			Arrays.sort(files);
+
+			for (File file : files) {
+				inputNames.add(file.getName());
+				inputs.add(Files.readAllBytes(file.toPath()));
+			}
+		}
+
+		List<SweepRunner> tasks = new ArrayList<>(inputs.size() * seedCount);
+		for (int i = 0; i < inputs.size(); i++) {
+			for (int s = 0; s < seedCount; s++) {
+				Long seed = firstSeed != null ? Long.valueOf(firstSeed + s) : null;
+				tasks.add(new SweepRunner(program, inputNames.get(i), inputs.get(i), seed, maxSteps));
+			}
+		}
+
+		ForkJoinPool pool = new ForkJoinPool();
+		try {
+			List<ForkJoinTask<?>> running = new ArrayList<>(tasks.size());
+			for (SweepRunner task : tasks)
+				running.add(pool.submit(task));
+
+			// Writes every output as soon as it and the ones before it are done, and forgets it.
+			for (int i = 0; i < tasks.size(); i++) {
+				SweepRunner task = tasks.get(i);
+				running.get(i).join();
+				running.set(i, null);
+				tasks.set(i, null);
+
+				String header = "--- " + task.inputName + (task.seed != null ? " seed " + task.seed : "") + ": " +
+				                task.result + '\n';
+				out.write(header.getBytes("UTF-8"));
+				task.output.writeTo(out);
+				out.write('\n');
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		out.flush();
+	}
+
+	@Override
+	public void run() {
+		FloaterInterpreter vm = new FloaterInterpreter();
+		try {
+			vm.setCompiled(true);
+			if (seed != null)
+				vm.setSeed(seed);
+			vm.setIO(FloaterIO.of(input, output));
+			vm.setFlushPolicy(FlushPolicy.HALT);
+			vm.setFlushInterval(0);
+			vm.setProgram(program);
+
+			result = FloaterMain.simulate(vm, maxSteps) ? "halted" : "step limit";
+		} catch (RuntimeException ex) {
+			result = "error: " + ex;
+		}
+	}
+}
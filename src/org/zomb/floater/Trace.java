@@ -0,0 +1,180 @@
+/*
+ * This file is part of Floater.
+ *
+ * Floater is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Floater is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Floater.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.zomb.floater;
+
+import java.util.Arrays;
+
+/**
+ * A recorded straight-line path through the program graph, reduced to the operations that have an effect. Codels that
+ * only move or turn the instruction pointer are left out, and common instruction pairs are fused into one operation.
+ * <p>
+ * SET PIXEL can change the program, so every SET PIXEL is followed by a guard that leaves the trace when it did.
+ *
+ * @author Zom-B
+ * @version 1.2
+ * @since 1.2
+ */
+// Created 2026-10-18
+final class Trace {
+	// Operations.
+	static final int INSTRUCTION = 0; // Any instruction, opcode << 8 | param
+	static final int PUSH = 1;        // PUSH constant
+	static final int PUSH_ADD = 2;    // PUSH constant, ADD
+	static final int PUSH_SUB = 3;    // PUSH constant, SUB
+	static final int PUSH_MUL = 4;    // PUSH constant, MUL
+	static final int PUSH_DIV = 5;    // PUSH constant, DIV
+	static final int DUP_MUL = 6;     // DUP, MUL
+	static final int GUARD = 7;       // Leave through exit instruction when SET PIXEL changed the code
+
+	// The graph the trace was recorded in, and the last code version it was known to be valid in.
+	final ProgramGraph graph;
+	int version;
+
+	// The nodes the trace passes, the generations of their components, and what they decoded to.
+	int nodes;
+	int[] node = new int[16];
+	int[] generation = new int[16];
+	int[] code = new int[16];
+	int[] param = new int[16];
+
+	// Another variant of the trace starting at the same node.
+	Trace next;
+
+	int size;
+	int[] op = new int[16];
+	int[] instruction = new int[16];
+	double[] constant = new double[16];
+
+	// Number of instructions the trace stands for, including the left out ones.
+	int steps;
+
+	// Where the instruction pointer ends up, and after how many steps. Exit 0 is the end of the trace, the others
+	// belong to guards.
+	int exits = 1;
+	int[] exitX = new int[4];
+	int[] exitY = new int[4];
+	int[] exitDir = new int[4];
+	int[] exitSteps = new int[4];
+
+	// Whether the trace contains INPUT, which might have to wait for input.
+	boolean input;
+
+	// Whether the end of the trace is its start, and how many of the allowed loops were left when compiled code returned.
+	boolean loops;
+	int loopsLeft;
+
+	// Shared by all traces with the same operations, or null when not compiling to bytecode.
+	TraceCompiler.Shape shape;
+
+	Trace(ProgramGraph graph, int version) {
+		this.graph = graph;
+		this.version = version;
+	}
+
+	void addNode(int node, int generation, int code, int param) {
+		if (nodes == this.node.length) {
+			this.node = Arrays.copyOf(this.node, nodes * 2);
+			this.generation = Arrays.copyOf(this.generation, nodes * 2);
+			this.code = Arrays.copyOf(this.code, nodes * 2);
+			this.param = Arrays.copyOf(this.param, nodes * 2);
+		}
+
+		this.node[nodes] = node;
+		this.generation[nodes] = generation;
+		this.code[nodes] = code;
+		this.param[nodes] = param;
+		nodes++;
+	}
+
+	void addInstruction(int opcode, int param) {
+		steps++;
+
+		switch (opcode) {
+			case 0x0: // NOP
+			case 0xE: // <reserved>
+			case 0xF: // FORWARD, DEFLECT
+				return;
+			case 0x1: // PUSH
+				add(PUSH, 0, param);
+				return;
+		}
+
+		// Instructions with a param that doesn't exist don't do anything.
+		if (param < 1 || param > FloaterConstants.INSTRUCTIONS[opcode].length)
+			return;
+
+		if (opcode == 0x7 && param == 2)
+			input = true;
+
+		if (opcode == 0xB && size > 0 && op[size - 1] == PUSH) {
+			// PUSH ADD, PUSH SUB, PUSH MUL, PUSH DIV
+			op[size - 1] = PUSH_ADD + param - 1;
+		} else if (opcode == 0xB && param == 3 && size > 0 && op[size - 1] == INSTRUCTION &&
+		           instruction[size - 1] == (0x2 << 8 | 1)) {
+			op[size - 1] = DUP_MUL;
+		} else {
+			add(INSTRUCTION, opcode << 8 | param, 0);
+		}
+	}
+
+	// PUSH IP, with the coordinates of the codel it's in.
+	void addPushIp(int x, int y) {
+		steps++;
+		add(PUSH, 0, x + FloaterConstants.ADDRESS_START);
+		add(PUSH, 0, y + FloaterConstants.ADDRESS_START);
+	}
+
+	/**
+	 * Adds a guard after SET PIXEL. When SET PIXEL changed the program, the rest of the trace might be wrong, and the
+	 * instruction pointer continues at (x, y) in direction dir instead.
+	 */
+	void addGuard(int x, int y, int dir) {
+		if (exits == exitX.length) {
+			exitX = Arrays.copyOf(exitX, exits * 2);
+			exitY = Arrays.copyOf(exitY, exits * 2);
+			exitDir = Arrays.copyOf(exitDir, exits * 2);
+			exitSteps = Arrays.copyOf(exitSteps, exits * 2);
+		}
+
+		exitX[exits] = x;
+		exitY[exits] = y;
+		exitDir[exits] = dir;
+		exitSteps[exits] = steps;
+		add(GUARD, exits++, 0);
+	}
+
+	void setEnd(int x, int y, int dir) {
+		exitX[0] = x;
+		exitY[0] = y;
+		exitDir[0] = dir;
+		exitSteps[0] = steps;
+	}
+
+	private void add(int op, int instruction, double constant) {
+		if (size == this.op.length) {
+			this.op = Arrays.copyOf(this.op, size * 2);
+			this.instruction = Arrays.copyOf(this.instruction, size * 2);
+			this.constant = Arrays.copyOf(this.constant, size * 2);
+		}
+
+		this.op[size] = op;
+		this.instruction[size] = instruction;
+		this.constant[size] = constant;
+		size++;
+	}
+}
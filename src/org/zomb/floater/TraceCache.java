@@ -0,0 +1,124 @@
+/*
+ * This file is part of Floater.
+ *
+ * Floater is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Floater is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Floater.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.zomb.floater;
+
+import java.util.Arrays;
+
+/**
+ * Counts how often the interpreter enters every node of the program graph, and holds the traces that are recorded at
+ * nodes that became hot. Every node can have a few variants of its trace, for when the program changes back and
+ * forth.
+ *
+ * @author Zom-B
+ * @version 1.2
+ * @since 1.2
+ */
+// Created 2026-10-18
+final class TraceCache {
+	// Entries before a node is hot.
+	private static final int HOT = 32;
+	// Traces kept for every node.
+	private static final int MAX_VARIANTS = 4;
+
+	// Indexed by node, in pages like PagedInts, as only the nodes the program passes are used.
+	private final PagedInts hits;
+	private Trace[][] traces;
+
+	// Nodes passed by the trace that is being recorded hold the recording number.
+	private final PagedInts visited;
+	private int recording;
+
+	TraceCache(int nodes) {
+		hits = new PagedInts(nodes);
+		traces = new Trace[PagedInts.pages(nodes)][];
+		visited = new PagedInts(nodes);
+	}
+
+	// Makes room for more nodes. The nodes that are there stay where they are.
+	void grow(int nodes) {
+		hits.ensureLength(nodes);
+		visited.ensureLength(nodes);
+		if (PagedInts.pages(nodes) > traces.length)
+			traces = Arrays.copyOf(traces, Math.max(PagedInts.pages(nodes), traces.length * 2));
+	}
+
+	/**
+	 * Returns the most recently used variant of the traces starting at the node.
+	 */
+	Trace get(int node) {
+		Trace[] page = traces[node >> PagedInts.PAGE_BITS];
+		return page != null ? page[node & PagedInts.PAGE_MASK] : null;
+	}
+
+	// Moves the variant to the front.
+	void use(int node, Trace trace) {
+		Trace first = get(node);
+		if (first == trace)
+			return;
+
+		Trace previous = first;
+		while (previous.next != trace)
+			previous = previous.next;
+
+		previous.next = trace.next;
+		trace.next = first;
+		set(node, trace);
+	}
+
+	// Counts an entry of the node while none of its traces could be used.
+	boolean hit(int node) {
+		int count = hits.get(node) + 1;
+		hits.set(node, count);
+		return count % HOT == 0;
+	}
+
+	// Adds a variant, forgetting the least recently used one when there are too many.
+	void put(int node, Trace trace) {
+		trace.next = get(node);
+		set(node, trace);
+
+		Trace last = trace;
+		for (int i = 1; i < MAX_VARIANTS && last.next != null; i++)
+			last = last.next;
+		last.next = null;
+	}
+
+	private void set(int node, Trace trace) {
+		int index = node >> PagedInts.PAGE_BITS;
+		if (traces[index] == null)
+			traces[index] = new Trace[PagedInts.PAGE_SIZE];
+
+		traces[index][node & PagedInts.PAGE_MASK] = trace;
+	}
+
+	void startRecording() {
+		if (recording == Integer.MAX_VALUE) {
+			visited.clear();
+			recording = 0;
+		}
+		recording++;
+	}
+
+	void visit(int node) {
+		visited.set(node, recording);
+	}
+
+	boolean visited(int node) {
+		return visited.get(node) == recording;
+	}
+}
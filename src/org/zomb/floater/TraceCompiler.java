@@ -0,0 +1,583 @@
+/*
+ * This file is part of Floater.
+ *
+ * Floater is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Floater is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Floater.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.zomb.floater;
+
+import java.lang.invoke.MethodHandles;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compiles hot traces to JVM bytecode, and loads them as hidden classes so HotSpot can optimize them further.
+ * <p>
+ * Floater has no conditional jumps, so a trace is a straight line of code, and at most one jump back to the start when
+ * the trace loops. The stack values a trace pushes are kept in local variables, and are only written to the stack of
+ * the interpreter before instructions that access the stack memory, and when leaving the trace. When SET PIXEL changes
+ * the program, the code leaves through the guard after it, and the interpreter takes over again.
+ * <p>
+ * The code only depends on the operations of a trace, not on the codels it was recorded from. Programs that modify
+ * themselves record the same traces over and over again, so traces with the same operations share their code.
+ *
+ * @author Zom-B
+ * @version 1.2
+ * @since 1.2
+ */
+// Created 2026-10-18
+final class TraceCompiler {
+	// Runs of the traces of a shape before it's compiled.
+	private static final int HOT = 64;
+
+	// Stack values kept in local variables before writing them to the stack.
+	private static final int MAX_CACHED = 32;
+
+	// Local variables of the compiled method.
+	private static final int VM = 1;
+	private static final int TRACE = 2;
+	private static final int LOOPS = 3;
+	private static final int FIRST_VALUE = 4;
+
+	private static final String CLASS_NAME = "org/zomb/floater/CompiledTraceImpl";
+	private static final String INTERPRETER = "org/zomb/floater/FloaterInterpreter";
+	private static final String TRACE_CLASS = "org/zomb/floater/Trace";
+	private static final String MATH = "java/lang/Math";
+
+	// Opcodes.
+	private static final int ICONST_0 = 0x03;
+	private static final int LCONST_1 = 0x0A;
+	private static final int DCONST_0 = 0x0E;
+	private static final int BIPUSH = 0x10;
+	private static final int SIPUSH = 0x11;
+	private static final int LDC2_W = 0x14;
+	private static final int ILOAD = 0x15;
+	private static final int DLOAD = 0x18;
+	private static final int ALOAD = 0x19;
+	private static final int DSTORE = 0x39;
+	private static final int DADD = 0x63;
+	private static final int LSUB = 0x65;
+	private static final int DSUB = 0x67;
+	private static final int DMUL = 0x6B;
+	private static final int DDIV = 0x6F;
+	private static final int LNEG = 0x75;
+	private static final int LAND = 0x7F;
+	private static final int LOR = 0x81;
+	private static final int LXOR = 0x83;
+	private static final int IINC = 0x84;
+	private static final int L2D = 0x8A;
+	private static final int DCMPL = 0x97;
+	private static final int DCMPG = 0x98;
+	private static final int IFNE = 0x9A;
+	private static final int IFGE = 0x9C;
+	private static final int IFLE = 0x9E;
+	private static final int IF_ICMPEQ = 0x9F;
+	private static final int GOTO = 0xA7;
+	private static final int IRETURN = 0xAC;
+	private static final int RETURN = 0xB1;
+	private static final int GETFIELD = 0xB4;
+	private static final int PUTFIELD = 0xB5;
+	private static final int INVOKEVIRTUAL = 0xB6;
+	private static final int INVOKESPECIAL = 0xB7;
+	private static final int INVOKESTATIC = 0xB8;
+	private static final int WIDE = 0xC4;
+	private static final int GOTO_W = 0xC8;
+
+	private final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+	private final Map<Shape, Shape> shapes = new HashMap<>();
+
+	// State while compiling.
+	private ClassFileWriter cf;
+	private byte[] code = new byte[1024];
+	private int length;
+	private int nextLocal;
+	private int[] cached = new int[MAX_CACHED];
+	private int depth;
+
+	/**
+	 * The operations of a trace, and the code compiled for them.
+	 */
+	static final class Shape {
+		private final long[] ops;
+		private final int hash;
+
+		private int runs;
+		// Null until compiled, and also when compiling failed.
+		volatile CompiledTrace code;
+
+		Shape(long[] ops) {
+			this.ops = ops;
+			hash = Arrays.hashCode(ops);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Shape && Arrays.equals(ops, ((Shape) obj).ops);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+	/**
+	 * Looks up the shape of a just recorded trace. Interpreters running the same program share a compiler, from any
+	 * thread.
+	 */
+	synchronized Shape shape(Trace trace) {
+		long[] ops = new long[trace.size * 2 + 1];
+		for (int i = 0; i < trace.size; i++) {
+			ops[i * 2] = (long) trace.op[i] << 32 | trace.instruction[i];
+			ops[i * 2 + 1] = Double.doubleToRawLongBits(trace.constant[i]);
+		}
+		ops[trace.size * 2] = trace.loops ? 1 : 0;
+
+		Shape shape = new Shape(ops);
+		Shape known = shapes.get(shape);
+		if (known != null)
+			return known;
+
+		shapes.put(shape, shape);
+		return shape;
+	}
+
+	/**
+	 * Counts a run of the trace, and compiles its shape once it's hot.
+	 */
+	void hit(Trace trace) {
+		// Only locks while the shape is still cold.
+		Shape shape = trace.shape;
+		if (shape.runs < HOT) {
+			synchronized (this) {
+				if (++shape.runs == HOT)
+					shape.code = compile(trace);
+			}
+		}
+	}
+
+	private CompiledTrace compile(Trace trace) {
+		byte[] classFile = generate(trace);
+		return classFile != null ? load(classFile) : null;
+	}
+
+	/**
+	 * Generates the class file of the code for the shape of the trace, or returns null when it doesn't fit in a method.
+	 */
+	synchronized byte[] generate(Trace trace) {
+		cf = new ClassFileWriter(CLASS_NAME, "java/lang/Object", "org/zomb/floater/CompiledTrace");
+		try {
+			emitConstructor();
+			emitRun(trace);
+			return cf.toByteArray();
+		} catch (IllegalStateException ignored) {
+			// Too big for a method. The trace just keeps being interpreted.
+			return null;
+		} finally {
+			cf = null;
+		}
+	}
+
+	// Returns null when refused by the JVM.
+	private CompiledTrace load(byte[] classFile) {
+		try {
+			Class<?> type = lookup.defineHiddenClass(classFile, true).lookupClass();
+			return (CompiledTrace) type.getConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError ignored) {
+			return null;
+		}
+	}
+
+	/**
+	 * Uses code generated ahead of time (see {@link #generate}) for the shape, instead of compiling it once it's hot.
+	 */
+	synchronized void install(Shape shape, byte[] classFile) {
+		CompiledTrace code = load(classFile);
+		if (code != null) {
+			shape.code = code;
+			shape.runs = HOT;
+		}
+	}
+
+	private void emitConstructor() {
+		length = 0;
+		emitLocal(ALOAD, 0);
+		emit(INVOKESPECIAL);
+		emitShort(cf.methodRef("java/lang/Object", "<init>", "()V"));
+		emit(RETURN);
+		cf.addMethod(ClassFileWriter.ACC_PUBLIC, "<init>", "()V", 1, 1, code, length);
+	}
+
+	private void emitRun(Trace trace) {
+		length = 0;
+		nextLocal = FIRST_VALUE;
+		depth = 0;
+
+		// Every pass through the trace uses up a loop, so the interpreter can count the steps.
+		emit(IINC);
+		emit(LOOPS);
+		emit(-1);
+
+		for (int i = 0; i < trace.size; i++) {
+			switch (trace.op[i]) {
+				case Trace.INSTRUCTION:
+					emitInstruction(trace.instruction[i] >> 8, trace.instruction[i] & 0xFF);
+					break;
+				case Trace.PUSH:
+					emitConstant(trace.constant[i]);
+					pushNew();
+					break;
+				case Trace.PUSH_ADD:
+				case Trace.PUSH_SUB:
+				case Trace.PUSH_MUL:
+				case Trace.PUSH_DIV:
+					emitLocal(DLOAD, pop());
+					emitConstant(trace.constant[i]);
+					emit(DADD + (trace.op[i] - Trace.PUSH_ADD) * 4);
+					pushNew();
+					break;
+				case Trace.DUP_MUL:
+					int value = pop();
+					emitLocal(DLOAD, value);
+					emitLocal(DLOAD, value);
+					emit(DMUL);
+					pushNew();
+					break;
+				case Trace.GUARD:
+					emitGuard(trace.instruction[i]);
+					break;
+			}
+		}
+
+		flush();
+		if (trace.loops) {
+			// Repeat until the loops run out.
+			emitLocal(ILOAD, LOOPS);
+			int done = emitJump(IFLE);
+			emit(GOTO_W);
+			emitInt(1 - length);
+			patchJump(done);
+		}
+		emitReturn(0);
+
+		if (length > 0xFFFF || nextLocal > 0xFFFF)
+			throw new IllegalStateException("Trace too big: " + trace.size);
+
+		cf.addMethod(ClassFileWriter.ACC_PUBLIC, "run", "(L" + INTERPRETER + ";L" + TRACE_CLASS + ";I)I", 16,
+		             nextLocal, code, length);
+	}
+
+	@SuppressWarnings({"SwitchStatementWithoutDefaultBranch", "NestedSwitchStatement"})
+	private void emitInstruction(int opcode, int param) {
+		int pop1;
+		int pop2;
+		int pop3;
+
+		switch (opcode << 8 | param) {
+			case 0x201: // DUP
+				pop1 = pop();
+				push(pop1);
+				push(pop1);
+				return;
+			case 0x202: // SWAP
+				pop1 = pop();
+				pop2 = pop();
+				push(pop1);
+				push(pop2);
+				return;
+			case 0x501: // NOT
+				emitToLong(pop());
+				emit(LNEG);
+				emit(LCONST_1);
+				emit(LSUB);
+				emit(L2D);
+				pushNew();
+				return;
+			case 0x502: // AND
+			case 0x503: // OR
+			case 0x504: // XOR
+				pop1 = pop();
+				pop2 = pop();
+				emitToLong(pop1);
+				emitToLong(pop2);
+				emit(param == 2 ? LAND : param == 3 ? LOR : LXOR);
+				emit(L2D);
+				pushNew();
+				return;
+			case 0x601: // EQ
+				emitFromBool(pop(), DCMPL, IFNE);
+				return;
+			case 0x602: // LT
+				emitFromBool(pop(), DCMPG, IFGE);
+				return;
+			case 0x603: // GT
+				emitFromBool(pop(), DCMPL, IFLE);
+				return;
+			case 0x604: // SIGN
+				emitMath(pop(), "signum");
+				return;
+			case 0x701: // PRINT
+				pop1 = pop();
+				emitLocal(ALOAD, VM);
+				emitLocal(DLOAD, pop1);
+				emitInvoke(INVOKEVIRTUAL, INTERPRETER, "print", "(D)V");
+				return;
+			case 0x702: // INPUT
+				emitLocal(ALOAD, VM);
+				emitInvoke(INVOKEVIRTUAL, INTERPRETER, "input", "()D");
+				pushNew();
+				return;
+			case 0x801: // SET PIXEL
+				pop1 = pop(); // Y
+				pop2 = pop(); // X
+				pop3 = pop();
+				emitLocal(ALOAD, VM);
+				emitAddress(pop2);
+				emitAddress(pop1);
+				emitLocal(DLOAD, pop3);
+				emitInvoke(INVOKEVIRTUAL, INTERPRETER, "setPixel", "(DDD)V");
+				return;
+			case 0x802: // GET PIXEL
+				pop1 = pop(); // Y
+				pop2 = pop(); // X
+				emitLocal(ALOAD, VM);
+				emitAddress(pop2);
+				emitAddress(pop1);
+				emitInvoke(INVOKEVIRTUAL, INTERPRETER, "getPixel", "(DD)D");
+				pushNew();
+				return;
+			case 0xA01: // ROUND
+				emitLocal(DLOAD, pop());
+				emitConstant(0.5);
+				emit(DADD);
+				emitInvoke(INVOKESTATIC, MATH, "floor", "(D)D");
+				pushNew();
+				return;
+			case 0xA02: // FLOOR
+				emitMath(pop(), "floor");
+				return;
+			case 0xA03: // CEIL
+				emitMath(pop(), "ceil");
+				return;
+			case 0xA04: // TRUNC
+				pop1 = pop();
+				emitLocal(DLOAD, pop1);
+				emitInvoke(INVOKESTATIC, MATH, "signum", "(D)D");
+				emitLocal(DLOAD, pop1);
+				emitInvoke(INVOKESTATIC, MATH, "abs", "(D)D");
+				emitInvoke(INVOKESTATIC, MATH, "floor", "(D)D");
+				emit(DMUL);
+				pushNew();
+				return;
+			case 0xB01: // ADD
+			case 0xB02: // SUB
+			case 0xB03: // MUL
+			case 0xB04: // DIV
+				pop1 = pop();
+				pop2 = pop();
+				emitLocal(DLOAD, pop2);
+				emitLocal(DLOAD, pop1);
+				emit(DADD + (param - 1) * 4);
+				pushNew();
+				return;
+			case 0xC01: // SQRT
+				emitMath(pop(), "sqrt");
+				return;
+			case 0xC02: // POW
+				pop1 = pop();
+				pop2 = pop();
+				emitLocal(DLOAD, pop2);
+				emitLocal(DLOAD, pop1);
+				emitInvoke(INVOKESTATIC, MATH, "pow", "(DD)D");
+				pushNew();
+				return;
+		}
+
+		// Everything else is left to the interpreter, with the stack up to date.
+		flush();
+		emitLocal(ALOAD, VM);
+		emitInt16(Operations.of(opcode, param));
+		emit(ICONST_0);
+		emitInvoke(INVOKEVIRTUAL, INTERPRETER, "operate", "(II)V");
+	}
+
+	private void emitGuard(int exit) {
+		emitLocal(ALOAD, VM);
+		emit(GETFIELD);
+		emitShort(cf.fieldRef(INTERPRETER, "codeVersion", "I"));
+		emitLocal(ALOAD, TRACE);
+		emit(GETFIELD);
+		emitShort(cf.fieldRef(TRACE_CLASS, "version", "I"));
+		int same = emitJump(IF_ICMPEQ);
+		emitLocal(ALOAD, VM);
+		emitLocal(ALOAD, TRACE);
+		emitInvoke(INVOKEVIRTUAL, INTERPRETER, "revalidate", "(L" + TRACE_CLASS + ";)Z");
+		int valid = emitJump(IFNE);
+
+		// Leave with the stack up to date, but keep caching on the path that continues.
+		for (int i = 0; i < depth; i++)
+			emitPush(cached[i]);
+		emitReturn(exit);
+
+		patchJump(same);
+		patchJump(valid);
+	}
+
+	private void emitReturn(int exit) {
+		emitLocal(ALOAD, TRACE);
+		emitLocal(ILOAD, LOOPS);
+		emit(PUTFIELD);
+		emitShort(cf.fieldRef(TRACE_CLASS, "loopsLeft", "I"));
+		emitInt16(exit);
+		emit(IRETURN);
+	}
+
+	// Takes a value from the cache, or pops it from the stack of the interpreter when the cache is empty.
+	private int pop() {
+		if (depth > 0)
+			return cached[--depth];
+
+		emitLocal(ALOAD, VM);
+		emitInvoke(INVOKEVIRTUAL, INTERPRETER, "pop", "()D");
+		return store();
+	}
+
+	// Stores the value on top of the operand stack, and pushes it on the cache.
+	private void pushNew() {
+		push(store());
+	}
+
+	private void push(int local) {
+		if (depth == MAX_CACHED)
+			flush();
+
+		cached[depth++] = local;
+	}
+
+	// Writes the cached values to the stack of the interpreter.
+	private void flush() {
+		for (int i = 0; i < depth; i++)
+			emitPush(cached[i]);
+		depth = 0;
+	}
+
+	private void emitPush(int local) {
+		emitLocal(ALOAD, VM);
+		emitLocal(DLOAD, local);
+		emitInvoke(INVOKEVIRTUAL, INTERPRETER, "push", "(D)V");
+	}
+
+	private int store() {
+		int local = nextLocal;
+		nextLocal += 2;
+		emitLocal(DSTORE, local);
+		return local;
+	}
+
+	private void emitMath(int local, String name) {
+		emitLocal(DLOAD, local);
+		emitInvoke(INVOKESTATIC, MATH, name, "(D)D");
+		pushNew();
+	}
+
+	private void emitToLong(int local) {
+		emitLocal(DLOAD, local);
+		emitInvoke(INVOKESTATIC, MATH, "round", "(D)J");
+	}
+
+	// Pushes -1 when the comparison of the value with 0 doesn't jump, 0 otherwise.
+	private void emitFromBool(int local, int compare, int jumpIfFalse) {
+		emitLocal(DLOAD, local);
+		emit(DCONST_0);
+		emit(compare);
+		int isFalse = emitJump(jumpIfFalse);
+		emitConstant(-1.0);
+		int done = emitJump(GOTO);
+		patchJump(isFalse);
+		emit(DCONST_0);
+		patchJump(done);
+		pushNew();
+	}
+
+	// Loads a coordinate, converted from the address the program uses.
+	private void emitAddress(int local) {
+		emitLocal(DLOAD, local);
+		emitConstant(FloaterConstants.ADDRESS_START);
+		emit(DSUB);
+	}
+
+	private void emitConstant(double value) {
+		emit(LDC2_W);
+		emitShort(cf.doubleConstant(value));
+	}
+
+	private void emitInt16(int value) {
+		if (value < 128) {
+			emit(BIPUSH);
+			emit(value);
+		} else {
+			emit(SIPUSH);
+			emitShort(value);
+		}
+	}
+
+	private void emitInvoke(int opcode, String owner, String name, String descriptor) {
+		emit(opcode);
+		emitShort(cf.methodRef(owner, name, descriptor));
+	}
+
+	private void emitLocal(int opcode, int local) {
+		if (local > 0xFF) {
+			emit(WIDE);
+			emit(opcode);
+			emitShort(local);
+		} else {
+			emit(opcode);
+			emit(local);
+		}
+	}
+
+	// Emits a jump with the target left open, and returns where it is.
+	private int emitJump(int opcode) {
+		emit(opcode);
+		emitShort(0);
+		return length - 3;
+	}
+
+	// Lets the jump at the given position jump to here.
+	private void patchJump(int jump) {
+		int offset = length - jump;
+		code[jump + 1] = (byte) (offset >> 8);
+		code[jump + 2] = (byte) offset;
+	}
+
+	private void emitInt(int value) {
+		emitShort(value >> 16);
+		emitShort(value);
+	}
+
+	private void emitShort(int value) {
+		emit(value >> 8);
+		emit(value);
+	}
+
+	private void emit(int value) {
+		if (length == code.length)
+			code = Arrays.copyOf(code, length * 2);
+
+		code[length++] = (byte) value;
+	}
+}
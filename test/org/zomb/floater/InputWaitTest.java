@@ -0,0 +1,95 @@
+/*
+ * This file is part of Floater.
+ *
+ * Floater is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Floater is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Floater.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.zomb.floater;
+
+import javax.imageio.ImageIO;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+
+/**
+ * Checks that a program waiting for input with {@link FloaterInterpreter#setInputWait} reaches its end of input path,
+ * for input from memory and from a pipe, interpreted and compiled. Run from the project directory.
+ *
+ * @author Zom-B
+ * @version 1.2
+ * @since 1.2
+ */
+// Created 2026-10-18
+public enum InputWaitTest {
+	;
+
+	private static final File CAT_EOF = new File("Examples/cat-eof.png");
+
+	public static void main(String... args) throws IOException {
+		for (boolean compiled : new boolean[]{false, true}) {
+			testMemory(compiled);
+			testPipe(compiled);
+		}
+		System.out.println("OK");
+	}
+
+	private static void testMemory(boolean compiled) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		FloaterInterpreter vm = newInterpreter(FloaterIO.of("abc".getBytes(), output), compiled);
+
+		check(runToEnd(vm) == StopReason.HALTED, "memory input doesn't halt");
+		check(output.toString().equals("abc"), "memory input printed " + output);
+	}
+
+	private static void testPipe(boolean compiled) throws IOException {
+		Pipe pipe = Pipe.open();
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		FloaterInterpreter vm = newInterpreter(FloaterIO.of(pipe.source(), Channels.newChannel(output)), compiled);
+
+		check(vm.run(1000000) == StopReason.IO_WAIT, "empty pipe doesn't wait");
+
+		pipe.sink().write(ByteBuffer.wrap("abc".getBytes()));
+		pipe.sink().close();
+		check(runToEnd(vm) == StopReason.HALTED, "closed pipe doesn't halt");
+		check(output.toString().equals("abc"), "pipe printed " + output);
+	}
+
+	private static FloaterInterpreter newInterpreter(FloaterIO io, boolean compiled) throws IOException {
+		FloaterInterpreter vm = new FloaterInterpreter();
+		vm.setCompiled(compiled);
+		vm.setIO(io);
+		vm.setInputWait(true);
+		vm.setImage(ImageIO.read(CAT_EOF));
+		return vm;
+	}
+
+	// Gives up after a few rounds of waiting, which would wait forever.
+	private static StopReason runToEnd(FloaterInterpreter vm) {
+		StopReason reason = null;
+		for (int i = 0; i < 5 && reason != StopReason.HALTED; i++)
+			reason = vm.run(1000000);
+
+		vm.flushOutput();
+		return reason;
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition)
+			throw new AssertionError(message);
+	}
+}